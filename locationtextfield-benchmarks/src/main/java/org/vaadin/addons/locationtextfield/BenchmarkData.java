@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2015 Elihu, LLC. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vaadin.addons.locationtextfield;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Data shared by the benchmarks: synthetic provider responses and generated locations
+ */
+final class BenchmarkData {
+
+    private static final String[] STREETS = {"Main St", "Broadway", "Market St", "Elm St", "Maple Ave", "Oak St",
+      "Washington Blvd", "Lincoln Rd", "Park Ave", "Sunset Blvd", "Lake Shore Dr", "Mission St"};
+    private static final String[] CITIES = {"Washington", "Springfield", "Portland", "Austin", "Denver", "Seattle",
+      "Atlanta", "Chicago"};
+    private static final String[] STATES = {"DC", "IL", "OR", "TX", "CO", "WA", "GA", "IL"};
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Loads a response from {@code /payloads/<name>.json}
+     */
+    static String payload(String name) {
+        try (InputStream in = BenchmarkData.class.getResourceAsStream("/payloads/" + name + ".json")) {
+            if (in == null)
+                throw new IllegalArgumentException("No such payload: " + name);
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) >= 0)
+                out.write(buffer, 0, read);
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Generates fully populated locations in random order
+     */
+    static List<GeocodedLocation> locations(int count, long seed) {
+        final Random random = new Random(seed);
+        final List<GeocodedLocation> locations = new ArrayList<GeocodedLocation>(count);
+        for (int i = 0; i < count; i++) {
+            final int city = random.nextInt(CITIES.length);
+            final String number = String.valueOf(1 + random.nextInt(9999));
+            final String street = STREETS[random.nextInt(STREETS.length)];
+            final String postalCode = String.valueOf(10000 + random.nextInt(90000));
+            locations.add(GeocodedLocation.newBuilder()
+              .withOriginalAddress(number + " " + street)
+              .withGeocodedAddress(number + " " + street + ", " + CITIES[city] + ", " + STATES[city] + " " + postalCode + ", USA")
+              .withStreetNumber(number)
+              .withRoute(street)
+              .withLocality(CITIES[city])
+              .withAdministrativeAreaLevel1(STATES[city])
+              .withCountry("US")
+              .withPostalCode(postalCode)
+              .withLat(25 + random.nextDouble() * 20)
+              .withLon(-120 + random.nextDouble() * 45)
+              .withType(LocationType.STREET_ADDRESS)
+              .build());
+        }
+        return locations;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2015 Elihu, LLC. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vaadin.addons.locationtextfield;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Reports the heap retained and the bytes allocated per suggestion when many sessions hold parsed provider results, with
+ * the shared {@link LocationStrings} dictionary turned off ("before") and on ("after").
+ *
+ * Run with: java -cp target/benchmarks.jar org.vaadin.addons.locationtextfield.FootprintReport [sessions]
+ */
+public final class FootprintReport {
+
+    private static final String[] PAYLOADS = {"google-20", "nominatim-50"};
+
+    private FootprintReport() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        for (String payload : PAYLOADS) {
+            measure(payload, sessions, false);      // warm up
+            final Footprint before = measure(payload, sessions, false);
+            final Footprint after = measure(payload, sessions, true);
+            System.out.printf("%-14s retained %6d -> %6d bytes/suggestion, allocated %6d -> %6d bytes/suggestion%n", payload,
+              before.retained, after.retained, before.allocated, after.allocated);
+        }
+    }
+
+    private static Footprint measure(String name, int sessions, boolean canonicalize) throws GeocodingException {
+        LocationStrings.setEnabled(canonicalize);
+        final String payload = BenchmarkData.payload(name);
+        final URLConnectionGeocoder<GeocodedLocation> geocoder = name.startsWith("google") ? GoogleGeocoder.getInstance()
+          : OpenStreetMapGeocoder.getInstance();
+        geocoder.setLimit(0);
+
+        final List<Collection<GeocodedLocation>> held = new ArrayList<Collection<GeocodedLocation>>(sessions);
+        final long heapBefore = usedHeap();
+        final long allocatedBefore = allocatedBytes();
+        int suggestions = 0;
+        for (int i = 0; i < sessions; i++) {
+            // every session parses its own response, as it would when each user types the query
+            final Collection<GeocodedLocation> results = geocoder.createLocations("main st " + i, payload);
+            suggestions += results.size();
+            held.add(results);
+        }
+        final long allocated = allocatedBytes() - allocatedBefore;
+        final long retained = usedHeap() - heapBefore;
+        if (held.size() != sessions)
+            throw new IllegalStateException();
+        return new Footprint(retained / suggestions, allocated / suggestions);
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        final Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean())
+          .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static final class Footprint {
+
+        private final long retained;
+        private final long allocated;
+
+        private Footprint(long retained, long allocated) {
+            this.retained = retained;
+            this.allocated = allocated;
+        }
+    }
+}
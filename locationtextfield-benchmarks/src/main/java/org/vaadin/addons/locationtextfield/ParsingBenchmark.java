@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2015 Elihu, LLC. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vaadin.addons.locationtextfield;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing of synthetic responses shaped like the Google and Nominatim APIs by {@link GoogleGeocoder} and
+ * {@link OpenStreetMapGeocoder}; the payloads are generated, not captured from the live services
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParsingBenchmark {
+
+    @Param({"google-1", "google-5", "google-20", "nominatim-1", "nominatim-10", "nominatim-50"})
+    public String payload;
+
+    private URLConnectionGeocoder<GeocodedLocation> geocoder;
+    private String response;
+
+    @Setup
+    public void setUp() {
+        this.geocoder = this.payload.startsWith("google") ? GoogleGeocoder.getInstance() : OpenStreetMapGeocoder.getInstance();
+        this.geocoder.setLimit(0);
+        this.response = BenchmarkData.payload(this.payload);
+    }
+
+    @Benchmark
+    public Collection<GeocodedLocation> createLocations() throws GeocodingException {
+        return this.geocoder.createLocations("1600 Pennsylvania", this.response);
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2015 Elihu, LLC. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vaadin.addons.locationtextfield;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Reports the serialized size of a {@link GeocodedLocation} and of a {@link LocationTextField} holding suggestions, i.e. the
+ * bytes each field adds to a replicated session.
+ *
+ * Run with: java -cp target/benchmarks.jar org.vaadin.addons.locationtextfield.SerializedSizeReport
+ */
+public final class SerializedSizeReport {
+
+    private static final int[] SUGGESTIONS = {0, 10, 100};
+
+    private SerializedSizeReport() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        final List<GeocodedLocation> locations = BenchmarkData.locations(SUGGESTIONS[SUGGESTIONS.length - 1], 42);
+        System.out.printf("%-40s %8d bytes%n", "GeocodedLocation", size(locations.get(0)));
+        for (int count : SUGGESTIONS) {
+            final LocationTextField<GeocodedLocation> field = new LocationTextField<GeocodedLocation>(GoogleGeocoder.getInstance());
+            field.setLocation(locations.get(0));
+            field.setSuggestions(locations.subList(0, count));
+            System.out.printf("%-40s %8d bytes%n", "LocationTextField, " + count + " suggestions", size(field));
+        }
+    }
+
+    private static int size(Serializable object) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        }
+        return bytes.size();
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2015 Elihu, LLC. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vaadin.addons.locationtextfield;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * {@link AbstractGeocoderController#sortResults(Collection)} and {@link GeocodedLocation#compareTo(GeocodedLocation)}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SortingBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int size;
+
+    private AbstractGeocoderController<GeocodedLocation> controller;
+    private List<GeocodedLocation> locations;
+
+    @Setup
+    public void setUp() {
+        this.controller = new DefaultGeocoderController<GeocodedLocation>(GoogleGeocoder.getInstance());
+        this.locations = BenchmarkData.locations(this.size, 42);
+    }
+
+    @Benchmark
+    public Collection<GeocodedLocation> sortResults() {
+        return this.controller.sortResults(this.locations);
+    }
+
+    /**
+     * Compares every location with its successor
+     */
+    @Benchmark
+    public void compareTo(Blackhole blackhole) {
+        for (int i = 1; i < this.locations.size(); i++)
+            blackhole.consume(this.locations.get(i - 1).compareTo(this.locations.get(i)));
+    }
+}
@@ -39,6 +39,7 @@ public class AbstractGeocoderController<E extends GeocodedLocation> implements S
     protected static final Logger LOGGER = LoggerFactory.getLogger(AbstractGeocoderController.class);
 
     private final LocationProvider<E> locationProvider;
+    private GeocodingMetrics metrics = GeocodingMetrics.NONE;
 
     protected AbstractGeocoderController(LocationProvider<E> locationProvider) {
         this.locationProvider = locationProvider;
@@ -48,34 +49,197 @@ public class AbstractGeocoderController<E extends GeocodedLocation> implements S
      * {@inheritDoc}
      */
     public void geocode(LocationTextField<E> ltf, String query) {
+        final GeocodingContext context = this.createContext(ltf);
+        final GeocodingContext previous = context.enter();
         try {
-            if (LOGGER.isDebugEnabled()) {
-                LOGGER.debug("Attempting to geocode query: {}", query);
+            if (this.isTwoPhase()) {
+                final Collection<LocationSuggestion> suggestions = this.performSuggest(ltf, query);
+                if (!this.isStale(ltf, context))
+                    this.handleSuggestions(ltf, query, suggestions);
+            } else {
+                final Collection<E> results = this.performGeocode(ltf, query);
+                if (!this.isStale(ltf, context))
+                    this.handleResults(ltf, query, results);
             }
-            final Collection<E> results = this.locationProvider.geocode(query);
-            if (LOGGER.isDebugEnabled()) {
-                LOGGER.debug("{} results geocoded successfully from query: {}", (results == null ? 0 : results.size()), query);
+        } catch (GeocodingException e) {
+            if (!this.isStale(ltf, context)) {
+                this.logError(query, e);
+                this.handleError(ltf, query, e);
             }
-            this.handleResults(ltf, query, results);
+        } finally {
+            context.exit(previous);
+        }
+    }
+
+    /**
+     * Creates the context describing a query for the field's current generation
+     * @param ltf target field
+     * @return new context
+     */
+    protected GeocodingContext createContext(LocationTextField<E> ltf) {
+        return new GeocodingContext(ltf, ltf.getQueryGeneration(), !ltf.isSpeculativeQuery());
+    }
+
+    /**
+     * Whether results for the given context should be dropped because it was cancelled or the field has since issued a newer
+     * query
+     * @param ltf target field
+     * @param context context of the query
+     * @return true if the results are stale
+     */
+    protected boolean isStale(LocationTextField<E> ltf, GeocodingContext context) {
+        if (context.isCancelled() || context.getGeneration() != ltf.getQueryGeneration()) {
+            LOGGER.debug("Dropping results of superseded query generation {}", context.getGeneration());
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Invokes the {@link LocationProvider} for the query. This method does not touch the field so it may be called outside
+     * of the session lock.
+     * @param ltf target field
+     * @param query the actual query from the client
+     * @return results of geocoding
+     * @throws GeocodingException if the provider fails
+     */
+    protected Collection<E> performGeocode(LocationTextField<E> ltf, String query) throws GeocodingException {
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Attempting to geocode query: {}", query);
+        }
+        final Collection<E> results = this.callProvider(query, () -> this.locationProvider.geocode(query));
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("{} results geocoded successfully from query: {}", (results == null ? 0 : results.size()), query);
+        }
+        return results;
+    }
+
+    /**
+     * Whether the provider answers in two phases (see {@link TwoPhaseLocationProvider#isTwoPhase()}), in which case queries are answered with lazy suggestions
+     * through {@link #performSuggest} and {@link #handleSuggestions} instead of {@link #performGeocode} and
+     * {@link #handleResults}
+     * @return true if the provider supports two-phase geocoding
+     */
+    protected boolean isTwoPhase() {
+        return TwoPhaseLocationProvider.isTwoPhase(this.locationProvider);
+    }
+
+    /**
+     * Invokes the first phase of the {@link TwoPhaseLocationProvider} for the query. Like {@link #performGeocode} this method
+     * does not touch the field so it may be called outside of the session lock.
+     * @param ltf target field
+     * @param query the actual query from the client
+     * @return suggestions for the query
+     * @throws GeocodingException if the provider fails
+     */
+    protected Collection<LocationSuggestion> performSuggest(LocationTextField<E> ltf, String query) throws GeocodingException {
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Attempting to suggest query: {}", query);
+        }
+        return this.callProvider(query, () -> ((TwoPhaseLocationProvider<E>)this.locationProvider).suggest(query));
+    }
+
+    /**
+     * Resolves a lazy suggestion through the {@link TwoPhaseLocationProvider}. This is called while the user's selection is
+     * being handled, i.e. within the session lock. Failures are logged and passed to {@link #handleError}.
+     * @param ltf target field
+     * @param suggestion selected suggestion
+     * @return resolved location, or null if the provider is not two-phase or could not resolve the suggestion
+     */
+    @Override
+    public E resolve(LocationTextField<E> ltf, LocationSuggestion suggestion) {
+        if (!this.isTwoPhase())
+            return null;
+        final String query = suggestion.getDisplayString();
+        try {
+            final Collection<E> results = this.callProvider(query, () -> {
+                final E location = ((TwoPhaseLocationProvider<E>)this.locationProvider).resolve(suggestion);
+                return location == null ? Collections.<E>emptyList() : Collections.singletonList(location);
+            });
+            return results.isEmpty() ? null : results.iterator().next();
         } catch (GeocodingException e) {
-            LOGGER.error("Error geocoding query: {}", query, e);
+            this.logError(query, e);
             this.handleError(ltf, query, e);
+            return null;
+        }
+    }
+
+    private <R> Collection<R> callProvider(String query, ProviderCall<R> call) throws GeocodingException {
+        this.metrics.providerStarted(query);
+        final long start = System.nanoTime();
+        final Collection<R> results;
+        try {
+            results = call.call();
+        } catch (GeocodingException e) {
+            this.metrics.providerFinished(query, 0, System.nanoTime() - start, e);
+            throw e;
+        } catch (RuntimeException e) {
+            this.metrics.providerFinished(query, 0, System.nanoTime() - start, new GeocodingException(e.getMessage(), e));
+            throw e;
         }
+        this.metrics.providerFinished(query, results == null ? 0 : results.size(), System.nanoTime() - start, null);
+        return results;
+    }
+
+    private interface ProviderCall<R> {
+        Collection<R> call() throws GeocodingException;
+    }
+
+    /**
+     * Logs a failed query. Queries rejected by an open circuit (see {@link CircuitBreakerLocationProvider}) are logged without
+     * a stack trace since the breaker already summarizes them.
+     * @param query the actual query from the client
+     * @param e failure
+     */
+    protected void logError(String query, GeocodingException e) {
+        if (e instanceof CircuitOpenException)
+            LOGGER.debug("Query failed fast: {} ({})", query, e.getMessage());
+        else
+            LOGGER.error("Error geocoding query: {}", query, e);
     }
 
     /**
-     * Handle results of query. By default, the field is cleared of options then the new options are sorted and added.
+     * Metrics notified of provider calls and suggestions pushed to fields; default is {@link GeocodingMetrics#NONE}
+     */
+    public GeocodingMetrics getGeocodingMetrics() {
+        return this.metrics;
+    }
+    public void setGeocodingMetrics(GeocodingMetrics metrics) {
+        this.metrics = metrics != null ? metrics : GeocodingMetrics.NONE;
+    }
+
+    /**
+     * The provider used to geocode queries
+     */
+    protected LocationProvider<E> getLocationProvider() {
+        return this.locationProvider;
+    }
+
+    /**
+     * Handle results of query. By default, the results are sorted and replace the field's options in a single state change.
      * @param ltf target field
      * @param query the actual query from the client
      * @param results results of geocoding
      */
     protected void handleResults(LocationTextField<E> ltf, String query, Collection<E> results) {
-        ltf.clearChoices();
         ltf.getState().text = query;
         Collection<E> sorted = this.sortResults(results);
-        for (E option : sorted) {
-            ltf.addSuggestion(option, option.getGeocodedAddress());
-        }
+        ltf.setSuggestions(sorted, GeocodedLocation::getGeocodedAddress);
+        this.metrics.suggestionsPushed(sorted.size());
+    }
+
+    /**
+     * Handle suggestions of a {@link TwoPhaseLocationProvider}. By default they replace the field's options in the order
+     * given by the provider; the selected one is resolved through {@link #resolve}.
+     * @param ltf target field
+     * @param query the actual query from the client
+     * @param suggestions suggestions for the query
+     */
+    protected void handleSuggestions(LocationTextField<E> ltf, String query, Collection<LocationSuggestion> suggestions) {
+        ltf.getState().text = query;
+        final Collection<LocationSuggestion> lazy = suggestions != null ? suggestions : Collections.<LocationSuggestion>emptyList();
+        ltf.setLazySuggestions(lazy);
+        this.metrics.suggestionsPushed(lazy.size());
     }
 
     /**
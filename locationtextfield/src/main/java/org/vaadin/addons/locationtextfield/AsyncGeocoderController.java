@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2015 Elihu, LLC. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vaadin.addons.locationtextfield;
+
+import com.vaadin.ui.UI;
+import com.vaadin.ui.UIDetachedException;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Geocoder controller which invokes the {@link LocationProvider} on a bounded executor instead of the request thread, so the
+ * session lock is not held for the upstream latency. Results are applied to the field through {@link UI#access}; the UI
+ * should use server push (see {@link com.vaadin.annotations.Push}) for them to show up without waiting for the next
+ * round trip. Results for fields which have been detached in the meantime are discarded.
+ *
+ * Only the latest query of each field is of interest: submitting a new query cancels the field's previous in-flight query,
+ * interrupting it and aborting its connection where the provider supports it, and results of superseded generations are
+ * dropped before they reach {@link #handleResults}.
+ *
+ * While the default executor's queue fills up, fields are told to back off (see {@link LocationTextField#getDelayBackoff()})
+ * in proportion to the queue's fill level, so clients send fewer queries until the backlog has drained.
+ *
+ * Fields which are not attached to a UI are geocoded synchronously. A custom executor is not serialized; after
+ * deserialization the shared default executor is used.
+ * @param <E> type of geocoding result
+ */
+public class AsyncGeocoderController<E extends GeocodedLocation> extends AbstractGeocoderController<E> {
+
+    private static final long serialVersionUID = 3385871024476211860L;
+
+    private static final int DEFAULT_THREADS = 8;
+    private static final int DEFAULT_QUEUE_SIZE = 1000;
+    private static final int MAX_DELAY_BACKOFF_MILLIS = 1000;
+
+    private static final Executor DEFAULT_EXECUTOR = createDefaultExecutor();
+
+    private transient Executor executor;
+    private transient Map<LocationTextField<E>, GeocodingContext> inFlight = createInFlight();
+
+    public AsyncGeocoderController(LocationProvider<E> locationProvider) {
+        this(locationProvider, null);
+    }
+
+    /**
+     * @param locationProvider provider used to geocode queries
+     * @param executor executor running the provider; the shared default is used if null
+     */
+    public AsyncGeocoderController(LocationProvider<E> locationProvider, Executor executor) {
+        super(locationProvider);
+        this.executor = executor;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void geocode(final LocationTextField<E> ltf, final String query) {
+        final UI ui = ltf.getUI();
+        if (ui == null) {
+            super.geocode(ltf, query);
+            return;
+        }
+        final GeocodingContext context = this.createContext(ltf);
+        final GeocodingContext superseded = this.inFlight.put(ltf, context);
+        if (superseded != null)
+            superseded.cancel();
+        try {
+            this.getExecutor().execute(() -> {
+                if (context.isCancelled())
+                    return;
+                final GeocodingContext previous = context.enter();
+                try {
+                    if (this.isTwoPhase()) {
+                        final Collection<LocationSuggestion> suggestions = this.performSuggest(ltf, query);
+                        this.apply(ui, ltf, query, context, () -> this.handleSuggestions(ltf, query, suggestions), null);
+                    } else {
+                        final Collection<E> results = this.performGeocode(ltf, query);
+                        this.apply(ui, ltf, query, context, () -> this.handleResults(ltf, query, results), null);
+                    }
+                } catch (GeocodingException e) {
+                    this.apply(ui, ltf, query, context, null, e);
+                } catch (RuntimeException e) {
+                    // nothing above the executor would report it, so surface it like any other failure
+                    this.apply(ui, ltf, query, context, null, new GeocodingException(e.getMessage(), e));
+                } finally {
+                    context.exit(previous);
+                    this.inFlight.remove(ltf, context);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            this.inFlight.remove(ltf, context);
+            ltf.setDelayBackoff(MAX_DELAY_BACKOFF_MILLIS);
+            LOGGER.warn("Geocoding executor rejected query: {}", query);
+            this.handleError(ltf, query, new GeocodingException("Geocoding executor is saturated", e));
+        }
+    }
+
+    private void apply(UI ui, LocationTextField<E> ltf, String query, GeocodingContext context, Runnable handler,
+      GeocodingException error) {
+        if (context.isCancelled())
+            return;
+        try {
+            ui.access(() -> {
+                if (!ltf.isAttached()) {
+                    LOGGER.debug("Field detached before results for query could be applied: {}", query);
+                } else if (!this.isStale(ltf, context)) {
+                    ltf.setDelayBackoff(this.getDelayBackoff());
+                    if (error != null) {
+                        this.logError(query, error);
+                        this.handleError(ltf, query, error);
+                    } else {
+                        handler.run();
+                    }
+                }
+            });
+        } catch (UIDetachedException e) {
+            LOGGER.debug("UI detached before results for query could be applied: {}", query);
+        }
+    }
+
+    /**
+     * Executor on which the {@link LocationProvider} is invoked. By default this is a shared pool of daemon threads with a
+     * bounded queue; queries rejected by the executor are passed to {@link #handleError}.
+     * @return executor
+     */
+    public Executor getExecutor() {
+        return this.executor != null ? this.executor : DEFAULT_EXECUTOR;
+    }
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Back-off hint passed to fields along with their results. If the executor is a {@link ThreadPoolExecutor} the hint grows
+     * linearly with the fill level of its queue, up to one second when the queue is full; otherwise it is zero.
+     * @return back-off in milliseconds
+     */
+    protected int getDelayBackoff() {
+        final Executor executor = this.getExecutor();
+        if (!(executor instanceof ThreadPoolExecutor))
+            return 0;
+        final BlockingQueue<Runnable> queue = ((ThreadPoolExecutor)executor).getQueue();
+        final int queued = queue.size();
+        final long capacity = (long)queued + queue.remainingCapacity();
+        return capacity <= 0 ? 0 : (int)(MAX_DELAY_BACKOFF_MILLIS * queued / capacity);
+    }
+
+    private static <E extends GeocodedLocation> Map<LocationTextField<E>, GeocodingContext> createInFlight() {
+        return Collections.synchronizedMap(new WeakHashMap<LocationTextField<E>, GeocodingContext>());
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        this.inFlight = createInFlight();
+    }
+
+    private static Executor createDefaultExecutor() {
+        final AtomicInteger count = new AtomicInteger();
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(DEFAULT_THREADS, DEFAULT_THREADS, 60, TimeUnit.SECONDS,
+          new ArrayBlockingQueue<Runnable>(DEFAULT_QUEUE_SIZE), runnable -> {
+              Thread thread = new Thread(runnable, "ltf-geocoder-" + count.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+          });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
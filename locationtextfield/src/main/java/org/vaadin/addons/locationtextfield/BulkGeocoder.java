@@ -0,0 +1,302 @@
+/*
+ * Copyright (C) 2015 Elihu, LLC. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vaadin.addons.locationtextfield;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Geocodes a batch of addresses, e.g. an address column of an uploaded file, with bounded parallelism.
+ *
+ * Addresses which normalize to the same query are only geocoded once. At most {@code parallelism} queries are in flight at
+ * any time; provider rate limits are respected by building this on a {@link RateLimitingLocationProvider}, in which case the
+ * parallelism should stay well below what the limiter lets through within its max wait. Queries run as speculative
+ * {@link GeocodingContext}s, so interactive queries sharing the limiter go first.
+ *
+ * Failures do not abort the batch; each failed address is reported with its {@link GeocodingException} in the
+ * {@link Result}.
+ * @param <T> type of geocoding result
+ */
+public class BulkGeocoder<T extends GeocodedLocation> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BulkGeocoder.class);
+
+    public static final int DEFAULT_PARALLELISM = 4;
+
+    private final LocationProvider<T> locationProvider;
+    private final int parallelism;
+    private final Executor executor;
+    private final ProgressListener<T> progressListener;
+
+    public BulkGeocoder(LocationProvider<T> locationProvider) {
+        this(locationProvider, DEFAULT_PARALLELISM, null, null);
+    }
+
+    private BulkGeocoder(Builder<T> builder) {
+        this(builder.locationProvider, builder.parallelism, builder.executor, builder.progressListener);
+    }
+
+    private BulkGeocoder(LocationProvider<T> locationProvider, int parallelism, Executor executor,
+      ProgressListener<T> progressListener) {
+        if (locationProvider == null) {
+            throw new IllegalArgumentException("locationProvider cannot be null");
+        }
+        this.locationProvider = locationProvider;
+        this.parallelism = parallelism;
+        this.executor = executor;
+        this.progressListener = progressListener;
+    }
+
+    public static <T extends GeocodedLocation> Builder<T> newBuilder() {
+        return new Builder<>();
+    }
+
+    /**
+     * Geocodes all addresses, blocking until every distinct query has completed. If the calling thread is interrupted the
+     * queries in flight are cancelled and the interrupt is rethrown.
+     * @param addresses addresses to geocode; duplicates are geocoded once
+     * @return results and failures keyed by input address, in input order
+     * @throws InterruptedException if the calling thread is interrupted
+     */
+    public Result<T> geocodeAll(Collection<String> addresses) throws InterruptedException {
+        final Map<String, String> queries = new LinkedHashMap<String, String>();        // normalized -> first address
+        for (String address : addresses)
+            queries.putIfAbsent(QueryNormalizer.normalize(address), address);
+
+        final Map<String, Collection<T>> results = new ConcurrentHashMap<String, Collection<T>>();
+        final Map<String, GeocodingException> errors = new ConcurrentHashMap<String, GeocodingException>();
+        final Map<GeocodingContext, Boolean> inFlight = new ConcurrentHashMap<GeocodingContext, Boolean>();
+        final Semaphore permits = new Semaphore(this.parallelism);
+        final AtomicInteger completed = new AtomicInteger();
+        final int total = queries.size();
+
+        final ExecutorService ownExecutor = this.executor == null ? createExecutor(this.parallelism) : null;
+        final Executor executor = ownExecutor != null ? ownExecutor : this.executor;
+        try {
+            for (Map.Entry<String, String> query : queries.entrySet()) {
+                permits.acquire();
+                final String key = query.getKey();
+                final String address = query.getValue();
+                // each query is its own source so the rate limiter never treats one as superseding another
+                final GeocodingContext context = new GeocodingContext(key, 0, false);
+                inFlight.put(context, Boolean.TRUE);
+                final Runnable task = () -> {
+                    Collection<T> locations = null;
+                    GeocodingException error = null;
+                    final GeocodingContext previous = context.enter();
+                    try {
+                        locations = this.locationProvider.geocode(address);
+                        if (locations == null)
+                            locations = Collections.emptyList();
+                        results.put(key, locations);
+                    } catch (GeocodingException e) {
+                        error = e;
+                        errors.put(key, e);
+                    } catch (RuntimeException e) {
+                        error = new GeocodingException(e.getMessage(), e);
+                        errors.put(key, error);
+                    } finally {
+                        context.exit(previous);
+                        inFlight.remove(context);
+                    }
+                    try {
+                        this.fireProgress(address, locations, error, completed.incrementAndGet(), total);
+                    } finally {
+                        permits.release();
+                    }
+                };
+                try {
+                    executor.execute(task);
+                } catch (RejectedExecutionException e) {
+                    inFlight.remove(context);
+                    permits.release();
+                    errors.put(key, new GeocodingException("Bulk geocoding task rejected", e));
+                    this.fireProgress(address, null, errors.get(key), completed.incrementAndGet(), total);
+                }
+            }
+            permits.acquire(this.parallelism);
+            permits.release(this.parallelism);
+        } catch (InterruptedException e) {
+            for (GeocodingContext context : inFlight.keySet())
+                context.cancel();
+            throw e;
+        } finally {
+            if (ownExecutor != null)
+                ownExecutor.shutdown();
+        }
+
+        final Map<String, Collection<T>> resultsByAddress = new LinkedHashMap<String, Collection<T>>();
+        final Map<String, GeocodingException> errorsByAddress = new LinkedHashMap<String, GeocodingException>();
+        for (String address : addresses) {
+            final String key = QueryNormalizer.normalize(address);
+            if (results.containsKey(key))
+                resultsByAddress.put(address, results.get(key));
+            else if (errors.containsKey(key))
+                errorsByAddress.put(address, errors.get(key));
+        }
+        return new Result<T>(resultsByAddress, errorsByAddress, total);
+    }
+
+    private void fireProgress(String address, Collection<T> locations, GeocodingException error, int completed, int total) {
+        if (this.progressListener == null)
+            return;
+        try {
+            this.progressListener.geocoded(address, locations, error);
+            this.progressListener.progress(completed, total);
+        } catch (RuntimeException e) {
+            LOGGER.warn("Bulk geocoding progress listener failed", e);
+        }
+    }
+
+    public LocationProvider<T> getLocationProvider() {
+        return this.locationProvider;
+    }
+
+    public int getParallelism() {
+        return this.parallelism;
+    }
+
+    private static ExecutorService createExecutor(int threads) {
+        final AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "ltf-bulk-geocoder-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Receives progress of a {@link BulkGeocoder} run. Methods are called from the threads performing the queries, in
+     * completion order.
+     * @param <T> type of geocoding result
+     */
+    public interface ProgressListener<T extends GeocodedLocation> {
+
+        /**
+         * Called after each distinct query completes
+         * @param completed number of distinct queries completed so far
+         * @param total number of distinct queries in the batch
+         */
+        void progress(int completed, int total);
+
+        /**
+         * Called with the outcome of each distinct query before {@link #progress(int, int)}
+         * @param address first input address of the query
+         * @param locations results, or null if the query failed
+         * @param error failure, or null if the query succeeded
+         */
+        default void geocoded(String address, Collection<T> locations, GeocodingException error) {
+        }
+    }
+
+    /**
+     * Outcome of {@link BulkGeocoder#geocodeAll(Collection)}
+     * @param <T> type of geocoding result
+     */
+    public static final class Result<T extends GeocodedLocation> {
+
+        private final Map<String, Collection<T>> results;
+        private final Map<String, GeocodingException> errors;
+        private final int queryCount;
+
+        private Result(Map<String, Collection<T>> results, Map<String, GeocodingException> errors, int queryCount) {
+            this.results = Collections.unmodifiableMap(results);
+            this.errors = Collections.unmodifiableMap(errors);
+            this.queryCount = queryCount;
+        }
+
+        /**
+         * Results of the successfully geocoded addresses, keyed by input address
+         */
+        public Map<String, Collection<T>> getResults() {
+            return this.results;
+        }
+
+        /**
+         * Failures keyed by input address
+         */
+        public Map<String, GeocodingException> getErrors() {
+            return this.errors;
+        }
+
+        /**
+         * Number of distinct queries sent to the provider
+         */
+        public int getQueryCount() {
+            return this.queryCount;
+        }
+    }
+
+    public static final class Builder<T extends GeocodedLocation> {
+
+        private LocationProvider<T> locationProvider;
+        private int parallelism = DEFAULT_PARALLELISM;
+        private Executor executor;
+        private ProgressListener<T> progressListener;
+
+        private Builder() {
+        }
+
+        public Builder<T> withLocationProvider(LocationProvider<T> locationProvider) {
+            this.locationProvider = locationProvider;
+            return this;
+        }
+
+        /**
+         * Max number of queries in flight at once
+         */
+        public Builder<T> withParallelism(int parallelism) {
+            if (parallelism < 1) {
+                throw new IllegalArgumentException("parallelism must be greater than zero");
+            }
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * Executor running the queries; by default a pool of {@code parallelism} threads is created for each batch
+         */
+        public Builder<T> withExecutor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        public Builder<T> withProgressListener(ProgressListener<T> progressListener) {
+            this.progressListener = progressListener;
+            return this;
+        }
+
+        public BulkGeocoder<T> build() {
+            return new BulkGeocoder<>(this);
+        }
+    }
+}
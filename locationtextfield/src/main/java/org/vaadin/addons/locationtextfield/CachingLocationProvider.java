@@ -0,0 +1,300 @@
+/*
+ * Copyright (C) 2015 Elihu, LLC. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vaadin.addons.locationtextfield;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link org.vaadin.addons.locationtextfield.LocationProvider} decorator which caches the results of another provider in a
+ * bounded, thread-safe LRU. Entries expire after a configurable time-to-live and the least recently used entries are evicted
+ * when either the max number of entries or the approximate byte budget is exceeded.
+ *
+ * Queries are keyed by their normalized form (trimmed, whitespace collapsed, lower-cased) so cached results carry the
+ * original address of the query which populated the entry.  Errors are never cached.
+ *
+ * When the decorated provider answers in two phases its suggestions are passed through uncached; only full results
+ * are cached.
+ */
+public class CachingLocationProvider<T extends GeocodedLocation> implements TwoPhaseLocationProvider<T> {
+
+    private static final long serialVersionUID = -2290418567340216417L;
+
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+    public static final long DEFAULT_MAX_BYTES = 16L * 1024 * 1024;
+    public static final long DEFAULT_TIME_TO_LIVE_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private final LocationProvider<T> locationProvider;
+    private final int maxEntries;
+    private final long maxBytes;
+    private final long timeToLiveMillis;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private transient LinkedHashMap<String, CacheEntry<T>> cache;
+    private transient long currentBytes;
+
+    public CachingLocationProvider(LocationProvider<T> locationProvider) {
+        this(locationProvider, DEFAULT_MAX_ENTRIES, DEFAULT_MAX_BYTES, DEFAULT_TIME_TO_LIVE_MILLIS);
+    }
+
+    private CachingLocationProvider(Builder<T> builder) {
+        this(builder.locationProvider, builder.maxEntries, builder.maxBytes, builder.timeToLiveMillis);
+    }
+
+    private CachingLocationProvider(LocationProvider<T> locationProvider, int maxEntries, long maxBytes, long timeToLiveMillis) {
+        if (locationProvider == null) {
+            throw new IllegalArgumentException("locationProvider cannot be null");
+        }
+        this.locationProvider = locationProvider;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.timeToLiveMillis = timeToLiveMillis;
+        this.cache = new LinkedHashMap<String, CacheEntry<T>>(16, 0.75f, true);
+    }
+
+    public static <T extends GeocodedLocation> Builder<T> newBuilder() {
+        return new Builder<>();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Collection<T> geocode(String address) throws GeocodingException {
+        final String key = QueryNormalizer.normalize(address);
+        final long now = System.currentTimeMillis();
+        synchronized (this) {
+            CacheEntry<T> entry = this.cache.get(key);
+            if (entry != null) {
+                if (entry.expiresAt > now) {
+                    this.hits.incrementAndGet();
+                    return entry.results;
+                }
+                this.remove(key);
+            }
+        }
+        this.misses.incrementAndGet();
+        final Collection<T> results = this.locationProvider.geocode(address);
+        if (results == null)
+            return null;
+        final CacheEntry<T> entry = new CacheEntry<T>(key, Collections.unmodifiableCollection(new ArrayList<T>(results)),
+          now + this.timeToLiveMillis);
+        synchronized (this) {
+            this.remove(key);
+            this.cache.put(key, entry);
+            this.currentBytes += entry.size;
+            this.evict();
+        }
+        return entry.results;
+    }
+
+    /**
+     * Passes the query to the decorated provider without caching the suggestions
+     */
+    public Collection<LocationSuggestion> suggest(String address) throws GeocodingException {
+        return TwoPhaseLocationProvider.twoPhase(this.locationProvider).suggest(address);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public T resolve(LocationSuggestion suggestion) throws GeocodingException {
+        return TwoPhaseLocationProvider.twoPhase(this.locationProvider).resolve(suggestion);
+    }
+
+    /**
+     * Whether the decorated provider answers in two phases
+     */
+    public boolean isTwoPhase() {
+        return TwoPhaseLocationProvider.isTwoPhase(this.locationProvider);
+    }
+
+    /**
+     * Sets the limit on the underlying provider. Since cached results depend on the limit the cache is cleared.
+     * @param limit max number of results
+     */
+    public void setLimit(int limit) {
+        this.locationProvider.setLimit(limit);
+        this.invalidateAll();
+    }
+
+    /**
+     * Removes all entries from the cache
+     */
+    public synchronized void invalidateAll() {
+        this.cache.clear();
+        this.currentBytes = 0;
+    }
+
+    /**
+     * Removes the entry for the given query from the cache
+     * @param address query to remove
+     */
+    public synchronized void invalidate(String address) {
+        this.remove(QueryNormalizer.normalize(address));
+    }
+
+    private void remove(String key) {
+        CacheEntry<T> old = this.cache.remove(key);
+        if (old != null)
+            this.currentBytes -= old.size;
+    }
+
+    private void evict() {
+        final long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, CacheEntry<T>>> it = this.cache.entrySet().iterator();
+        while (it.hasNext() && (this.cache.size() > this.maxEntries || this.currentBytes > this.maxBytes)) {
+            CacheEntry<T> entry = it.next().getValue();
+            it.remove();
+            this.currentBytes -= entry.size;
+            if (entry.expiresAt > now)
+                this.evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * The decorated provider
+     */
+    public LocationProvider<T> getLocationProvider() {
+        return this.locationProvider;
+    }
+
+    /**
+     * Number of entries currently cached
+     */
+    public synchronized int size() {
+        return this.cache.size();
+    }
+
+    /**
+     * Approximate number of bytes currently held by cached entries
+     */
+    public synchronized long getEstimatedBytes() {
+        return this.currentBytes;
+    }
+
+    public long getHitCount() {
+        return this.hits.get();
+    }
+
+    public long getMissCount() {
+        return this.misses.get();
+    }
+
+    /**
+     * Number of live entries evicted because the cache exceeded either its max entries or its byte budget
+     */
+    public long getEvictionCount() {
+        return this.evictions.get();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        this.cache = new LinkedHashMap<String, CacheEntry<T>>(16, 0.75f, true);
+    }
+
+    /**
+     * Rough estimate of the heap used by a location; strings are counted as two bytes per character plus overhead
+     * @param location location to measure
+     * @return estimated size in bytes
+     */
+    static long estimateSize(GeocodedLocation location) {
+        if (location == null)
+            return 0;
+        return 80 + estimateSize(location.getOriginalAddress()) + estimateSize(location.getGeocodedAddress())
+          + estimateSize(location.getStreetNumber()) + estimateSize(location.getRoute()) + estimateSize(location.getLocality())
+          + estimateSize(location.getAdministrativeAreaLevel1()) + estimateSize(location.getAdministrativeAreaLevel2())
+          + estimateSize(location.getCountry()) + estimateSize(location.getPostalCode());
+    }
+
+    static long estimateSize(String value) {
+        return value == null ? 0 : 40 + 2L * value.length();
+    }
+
+    private static final class CacheEntry<T extends GeocodedLocation> {
+
+        private final Collection<T> results;
+        private final long expiresAt;
+        private final long size;
+
+        private CacheEntry(String key, Collection<T> results, long expiresAt) {
+            this.results = results;
+            this.expiresAt = expiresAt;
+            long bytes = 64 + estimateSize(key);
+            for (T result : results)
+                bytes += estimateSize(result);
+            this.size = bytes;
+        }
+    }
+
+    public static final class Builder<T extends GeocodedLocation> {
+
+        private LocationProvider<T> locationProvider;
+        private int maxEntries = DEFAULT_MAX_ENTRIES;
+        private long maxBytes = DEFAULT_MAX_BYTES;
+        private long timeToLiveMillis = DEFAULT_TIME_TO_LIVE_MILLIS;
+
+        private Builder() {
+        }
+
+        public Builder<T> withLocationProvider(LocationProvider<T> locationProvider) {
+            this.locationProvider = locationProvider;
+            return this;
+        }
+
+        public Builder<T> withMaxEntries(int maxEntries) {
+            if (maxEntries < 1) {
+                throw new IllegalArgumentException("maxEntries must be greater than zero");
+            }
+            this.maxEntries = maxEntries;
+            return this;
+        }
+
+        public Builder<T> withMaxBytes(long maxBytes) {
+            if (maxBytes < 1) {
+                throw new IllegalArgumentException("maxBytes must be greater than zero");
+            }
+            this.maxBytes = maxBytes;
+            return this;
+        }
+
+        public Builder<T> withTimeToLive(long duration, TimeUnit unit) {
+            if (duration < 1) {
+                throw new IllegalArgumentException("duration must be greater than zero");
+            }
+            this.timeToLiveMillis = unit.toMillis(duration);
+            return this;
+        }
+
+        public CachingLocationProvider<T> build() {
+            return new CachingLocationProvider<>(this);
+        }
+    }
+}
@@ -0,0 +1,339 @@
+/*
+ * Copyright (C) 2015 Elihu, LLC. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vaadin.addons.locationtextfield;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.Collection;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link org.vaadin.addons.locationtextfield.LocationProvider} decorator which stops calling a provider that keeps failing.
+ *
+ * After {@code failureThreshold} consecutive failures the circuit opens and calls fail fast with a
+ * {@link CircuitOpenException}, or are answered by the fallback provider if one is configured. Once the open duration has
+ * passed the circuit is half-open: a single probe call is let through while other calls keep failing fast, and the
+ * circuit closes if the probe succeeds or opens again if it fails. Cancelled calls do not count as failures.
+ *
+ * To answer from a cache while the circuit is open, wrap this provider in a {@link CachingLocationProvider} so cache hits
+ * never reach it. Failures and fast-failed calls are logged as a periodic summary rather than one by one; the circuit
+ * state is reset to closed after deserialization.
+ *
+ * When the provider and the fallback answer in two phases, suggestions and resolutions go through the circuit like
+ * queries. Suggestions of the fallback are resolved by the fallback; those of the provider cannot be resolved while the
+ * circuit is open.
+ * @param <T> type of geocoding result
+ */
+public class CircuitBreakerLocationProvider<T extends GeocodedLocation> implements TwoPhaseLocationProvider<T> {
+
+    private static final long serialVersionUID = -2336190750906127562L;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CircuitBreakerLocationProvider.class);
+
+    private static final int PROVIDER_SOURCE = 0;
+    private static final int FALLBACK_SOURCE = 1;
+
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    public static final long DEFAULT_OPEN_DURATION_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    public static final long DEFAULT_SUMMARY_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * State of the circuit
+     */
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final LocationProvider<T> locationProvider;
+    private final LocationProvider<T> fallback;
+    private final String name;
+    private final int failureThreshold;
+    private final long openDurationNanos;
+    private final long summaryIntervalNanos;
+
+    private transient State state;
+    private transient int consecutiveFailures;
+    private transient long openedAt;
+    private transient boolean probing;
+    private transient long summaryStartedAt;
+    private transient int summaryFailures;
+    private transient int summaryFastFails;
+    private transient String lastError;
+
+    public CircuitBreakerLocationProvider(LocationProvider<T> locationProvider) {
+        this(locationProvider, null, null, DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_DURATION_MILLIS,
+          DEFAULT_SUMMARY_INTERVAL_MILLIS);
+    }
+
+    private CircuitBreakerLocationProvider(Builder<T> builder) {
+        this(builder.locationProvider, builder.fallback, builder.name, builder.failureThreshold, builder.openDurationMillis,
+          builder.summaryIntervalMillis);
+    }
+
+    private CircuitBreakerLocationProvider(LocationProvider<T> locationProvider, LocationProvider<T> fallback, String name,
+      int failureThreshold, long openDurationMillis, long summaryIntervalMillis) {
+        if (locationProvider == null) {
+            throw new IllegalArgumentException("locationProvider cannot be null");
+        }
+        this.locationProvider = locationProvider;
+        this.fallback = fallback;
+        this.name = name != null ? name : locationProvider.getClass().getSimpleName();
+        this.failureThreshold = failureThreshold;
+        this.openDurationNanos = TimeUnit.MILLISECONDS.toNanos(openDurationMillis);
+        this.summaryIntervalNanos = TimeUnit.MILLISECONDS.toNanos(summaryIntervalMillis);
+        this.reset();
+    }
+
+    public static <T extends GeocodedLocation> Builder<T> newBuilder() {
+        return new Builder<>();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Collection<T> geocode(String address) throws GeocodingException {
+        return this.call(provider -> provider.geocode(address), true);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Collection<LocationSuggestion> suggest(String address) throws GeocodingException {
+        if (this.fallback == null)
+            return this.call(provider -> TwoPhaseLocationProvider.twoPhase(provider).suggest(address), false);
+        // record who made each suggestion so it is resolved by the same provider
+        return this.call(provider -> LocationSuggestion.withSource(
+          provider == this.fallback ? FALLBACK_SOURCE : PROVIDER_SOURCE,
+          TwoPhaseLocationProvider.twoPhase(provider).suggest(address)), true);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public T resolve(LocationSuggestion suggestion) throws GeocodingException {
+        if (this.fallback == null)
+            return this.call(provider -> TwoPhaseLocationProvider.twoPhase(provider).resolve(suggestion), false);
+        final LocationSuggestion original = suggestion.withoutSource();
+        if (suggestion.getSource() == FALLBACK_SOURCE)
+            return TwoPhaseLocationProvider.twoPhase(this.fallback).resolve(original);
+        return this.call(provider -> TwoPhaseLocationProvider.twoPhase(provider).resolve(original), false);
+    }
+
+    /**
+     * Whether the provider and the fallback, if any, answer in two phases
+     */
+    public boolean isTwoPhase() {
+        return TwoPhaseLocationProvider.isTwoPhase(this.locationProvider)
+          && (this.fallback == null || TwoPhaseLocationProvider.isTwoPhase(this.fallback));
+    }
+
+    /**
+     * Makes the call through the circuit
+     * @param call call to the provider or the fallback
+     * @param useFallback whether the fallback answers calls while the circuit is open
+     */
+    private <R> R call(ProviderCall<T, R> call, boolean useFallback) throws GeocodingException {
+        final boolean probe;
+        final boolean fastFail;
+        synchronized (this) {
+            final long now = System.nanoTime();
+            this.logSummary(now);
+            if (this.state == State.OPEN && now - this.openedAt >= this.openDurationNanos) {
+                this.state = State.HALF_OPEN;
+                LOGGER.info("Circuit for {} is half-open; probing", this.name);
+            }
+            probe = this.state == State.HALF_OPEN && !this.probing;
+            fastFail = this.state != State.CLOSED && !probe;
+            if (fastFail)
+                this.summaryFastFails++;
+            else if (probe)
+                this.probing = true;
+        }
+        if (fastFail) {
+            if (useFallback && this.fallback != null)
+                return call.call(this.fallback);
+            throw new CircuitOpenException("Circuit for " + this.name + " is open");
+        }
+
+        try {
+            final R result = call.call(this.locationProvider);
+            this.onSuccess(probe);
+            return result;
+        } catch (GeocodingException e) {
+            this.onFailure(probe, e);
+            throw e;
+        } catch (RuntimeException e) {
+            this.onFailure(probe, e);
+            throw e;
+        }
+    }
+
+    private synchronized void onSuccess(boolean probe) {
+        if (probe) {
+            this.probing = false;
+            LOGGER.info("Circuit for {} closed after successful probe", this.name);
+        }
+        this.state = State.CLOSED;
+        this.consecutiveFailures = 0;
+    }
+
+    private synchronized void onFailure(boolean probe, Exception e) {
+        if (probe)
+            this.probing = false;
+        if (e.getCause() instanceof CancellationException)
+            return;
+        this.summaryFailures++;
+        this.lastError = e.toString();
+        if (probe) {
+            this.open("probe failed");
+        } else if (this.state == State.CLOSED && ++this.consecutiveFailures >= this.failureThreshold) {
+            this.open(this.consecutiveFailures + " consecutive failures");
+        }
+    }
+
+    private void open(String reason) {
+        this.state = State.OPEN;
+        this.openedAt = System.nanoTime();
+        LOGGER.warn("Circuit for {} opened after {}: {}; failing fast for {} ms", this.name, reason, this.lastError,
+          TimeUnit.NANOSECONDS.toMillis(this.openDurationNanos));
+    }
+
+    private void logSummary(long now) {
+        if (now - this.summaryStartedAt < this.summaryIntervalNanos)
+            return;
+        if (this.summaryFailures > 0 || this.summaryFastFails > 0) {
+            LOGGER.warn("{} in the last {} s: {} failures, {} calls failed fast, circuit {}; last error: {}", this.name,
+              TimeUnit.NANOSECONDS.toSeconds(now - this.summaryStartedAt), this.summaryFailures, this.summaryFastFails,
+              this.state, this.lastError);
+        }
+        this.summaryStartedAt = now;
+        this.summaryFailures = 0;
+        this.summaryFastFails = 0;
+    }
+
+    private void reset() {
+        this.state = State.CLOSED;
+        this.summaryStartedAt = System.nanoTime();
+    }
+
+    public synchronized State getState() {
+        return this.state;
+    }
+
+    public void setLimit(int limit) {
+        this.locationProvider.setLimit(limit);
+        if (this.fallback != null)
+            this.fallback.setLimit(limit);
+    }
+
+    public LocationProvider<T> getLocationProvider() {
+        return this.locationProvider;
+    }
+
+    public LocationProvider<T> getFallback() {
+        return this.fallback;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        this.reset();
+    }
+
+    private interface ProviderCall<T extends GeocodedLocation, R> {
+        R call(LocationProvider<T> provider) throws GeocodingException;
+    }
+
+    public static final class Builder<T extends GeocodedLocation> {
+
+        private LocationProvider<T> locationProvider;
+        private LocationProvider<T> fallback;
+        private String name;
+        private int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+        private long openDurationMillis = DEFAULT_OPEN_DURATION_MILLIS;
+        private long summaryIntervalMillis = DEFAULT_SUMMARY_INTERVAL_MILLIS;
+
+        private Builder() {
+        }
+
+        public Builder<T> withLocationProvider(LocationProvider<T> locationProvider) {
+            this.locationProvider = locationProvider;
+            return this;
+        }
+
+        /**
+         * Provider answering calls while the circuit is open, e.g. a {@link LocalAddressGeocoder}
+         */
+        public Builder<T> withFallback(LocationProvider<T> fallback) {
+            this.fallback = fallback;
+            return this;
+        }
+
+        /**
+         * Name of the provider used in log messages; defaults to its class name
+         */
+        public Builder<T> withName(String name) {
+            this.name = name;
+            return this;
+        }
+
+        /**
+         * Number of consecutive failures which opens the circuit
+         */
+        public Builder<T> withFailureThreshold(int failureThreshold) {
+            if (failureThreshold < 1) {
+                throw new IllegalArgumentException("failureThreshold must be greater than zero");
+            }
+            this.failureThreshold = failureThreshold;
+            return this;
+        }
+
+        /**
+         * How long the circuit stays open before a probe call is let through
+         */
+        public Builder<T> withOpenDuration(long duration, TimeUnit unit) {
+            if (duration < 1) {
+                throw new IllegalArgumentException("duration must be greater than zero");
+            }
+            this.openDurationMillis = unit.toMillis(duration);
+            return this;
+        }
+
+        /**
+         * Interval of the failure summary log
+         */
+        public Builder<T> withSummaryInterval(long duration, TimeUnit unit) {
+            if (duration < 1) {
+                throw new IllegalArgumentException("duration must be greater than zero");
+            }
+            this.summaryIntervalMillis = unit.toMillis(duration);
+            return this;
+        }
+
+        public CircuitBreakerLocationProvider<T> build() {
+            return new CircuitBreakerLocationProvider<>(this);
+        }
+    }
+}
@@ -0,0 +1,470 @@
+/*
+ * Copyright (C) 2015 Elihu, LLC. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vaadin.addons.locationtextfield;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * {@link org.vaadin.addons.locationtextfield.LocationProvider} which combines several providers, the first of which is the
+ * primary. Depending on the {@link Strategy} the others are only asked when the primary fails, asked at the same time, or
+ * asked once the primary is slower than usual.
+ *
+ * The results of the first provider to answer successfully are returned, merged with those of any provider which has
+ * answered by then; locations with the same address and coordinates are only returned once, in provider order.
+ *
+ * Providers other than the first one of {@link Strategy#FALLBACK} run on an executor within a copy of the caller's
+ * {@link GeocodingContext}, which is cancelled when the caller's context is or when the provider is no longer needed. A
+ * custom executor is not serialized; after deserialization the shared default executor is used.
+ *
+ * When all providers answer in two phases, suggestions are combined the same way, suggestions with the same display
+ * string being only returned once, and each suggestion is resolved by the provider which made it.
+ * @param <T> type of geocoding result
+ */
+public class CompositeLocationProvider<T extends GeocodedLocation> implements TwoPhaseLocationProvider<T> {
+
+    private static final long serialVersionUID = -1270573380566049513L;
+
+    public static final long DEFAULT_HEDGE_DELAY_MILLIS = 500;
+    public static final long DEFAULT_MIN_HEDGE_DELAY_MILLIS = 50;
+    public static final double DEFAULT_HEDGE_PERCENTILE = 0.95;
+
+    private static final int LATENCY_SAMPLES = 128;
+    private static final int MIN_LATENCY_SAMPLES = 20;
+    private static final int DEFAULT_THREADS = 16;
+    private static final int DEFAULT_QUEUE_SIZE = 1000;
+
+    private static final Executor DEFAULT_EXECUTOR = createDefaultExecutor();
+
+    /**
+     * How the providers are combined
+     */
+    public enum Strategy {
+
+        /**
+         * Ask the providers one after the other on the calling thread until one succeeds
+         */
+        FALLBACK,
+
+        /**
+         * Ask all providers at once and use the first to succeed; the others are cancelled
+         */
+        RACE,
+
+        /**
+         * Ask the primary and, if it has not answered within the hedge delay (by default derived from its recent
+         * latencies), the next provider as well, and so on; providers also start right away when all earlier ones failed
+         */
+        HEDGE
+    }
+
+    private final List<LocationProvider<T>> providers;
+    private final Strategy strategy;
+    private final long hedgeDelayMillis;
+    private final long minHedgeDelayMillis;
+    private final double hedgePercentile;
+
+    private final long[] primaryLatencies = new long[LATENCY_SAMPLES];     // nanoseconds, ring buffer
+    private int primaryLatencyCount;
+    private final AtomicInteger hedgeCount = new AtomicInteger();
+
+    private transient Executor executor;
+
+    private CompositeLocationProvider(Builder<T> builder) {
+        if (builder.providers.isEmpty()) {
+            throw new IllegalArgumentException("at least one provider is required");
+        }
+        this.providers = Collections.unmodifiableList(new ArrayList<LocationProvider<T>>(builder.providers));
+        this.strategy = builder.strategy;
+        this.hedgeDelayMillis = builder.hedgeDelayMillis;
+        this.minHedgeDelayMillis = builder.minHedgeDelayMillis;
+        this.hedgePercentile = builder.hedgePercentile;
+        this.executor = builder.executor;
+    }
+
+    public static <T extends GeocodedLocation> Builder<T> newBuilder() {
+        return new Builder<>();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Collection<T> geocode(String address) throws GeocodingException {
+        final ProviderCall<T, T> call = (index, provider) -> provider.geocode(address);
+        if (this.strategy == Strategy.FALLBACK)
+            return this.fallback(call);
+        return this.concurrent(call, CompositeLocationProvider::dedupeKey, true);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Collection<LocationSuggestion> suggest(String address) throws GeocodingException {
+        // record who made each suggestion so it is resolved by the same provider
+        final ProviderCall<T, LocationSuggestion> call = (index, provider) ->
+          LocationSuggestion.withSource(index, TwoPhaseLocationProvider.twoPhase(provider).suggest(address));
+        if (this.strategy == Strategy.FALLBACK)
+            return this.fallback(call);
+        return this.concurrent(call, suggestion -> suggestion.getDisplayString() == null ? suggestion.getId()
+          : QueryNormalizer.normalize(suggestion.getDisplayString()), false);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public T resolve(LocationSuggestion suggestion) throws GeocodingException {
+        final int index = suggestion.getSource();
+        if (index < 0 || index >= this.providers.size())
+            throw new GeocodingException("Suggestion was not made by this provider: " + suggestion.getId());
+        return TwoPhaseLocationProvider.twoPhase(this.providers.get(index)).resolve(suggestion.withoutSource());
+    }
+
+    /**
+     * Whether all providers answer in two phases
+     */
+    public boolean isTwoPhase() {
+        for (LocationProvider<T> provider : this.providers) {
+            if (!TwoPhaseLocationProvider.isTwoPhase(provider))
+                return false;
+        }
+        return true;
+    }
+
+    private <R> Collection<R> fallback(ProviderCall<T, R> call) throws GeocodingException {
+        GeocodingException failure = null;
+        for (int index = 0; index < this.providers.size(); index++) {
+            try {
+                return call.call(index, this.providers.get(index));
+            } catch (GeocodingException e) {
+                if (isCancellation(e))
+                    throw e;
+                if (failure == null)
+                    failure = e;
+                else
+                    failure.addSuppressed(e);
+            }
+        }
+        throw failure;
+    }
+
+    /**
+     * Runs the call on the providers according to the strategy
+     * @param call call to one provider
+     * @param key identifies results to return only once
+     * @param recordLatency whether the primary's latencies count towards the hedge delay
+     */
+    private <R> Collection<R> concurrent(ProviderCall<T, R> call, Function<? super R, String> key, boolean recordLatency)
+      throws GeocodingException {
+        final GeocodingContext parent = GeocodingContext.current();
+        final BlockingQueue<Attempt<R>> completions = new LinkedBlockingQueue<Attempt<R>>();
+        final GeocodingContext[] contexts = new GeocodingContext[this.providers.size()];
+        final Runnable cancelAll = () -> cancel(contexts);
+        if (parent != null)
+            parent.addCancelListener(cancelAll);
+
+        final Map<Integer, Collection<R>> answers = new TreeMap<Integer, Collection<R>>();
+        GeocodingException failure = null;
+        int launched = 0;
+        int pending = 0;
+        try {
+            final int initial = this.strategy == Strategy.RACE ? this.providers.size() : 1;
+            for (; launched < initial; launched++, pending++)
+                contexts[launched] = this.launch(launched, call, recordLatency, parent, completions);
+            final long hedgeDelay = TimeUnit.MILLISECONDS.toNanos(this.getHedgeDelay());
+            long nextHedge = System.nanoTime() + hedgeDelay;
+
+            while (pending > 0 || launched < this.providers.size()) {
+                Attempt<R> attempt;
+                if (pending == 0) {
+                    attempt = null;         // everything launched so far failed; move on to the next provider now
+                } else if (launched < this.providers.size()) {
+                    attempt = completions.poll(Math.max(0, nextHedge - System.nanoTime()), TimeUnit.NANOSECONDS);
+                } else {
+                    attempt = completions.take();
+                }
+                if (attempt == null) {
+                    if (pending > 0)
+                        this.hedgeCount.incrementAndGet();
+                    contexts[launched] = this.launch(launched, call, recordLatency, parent, completions);
+                    launched++;
+                    pending++;
+                    nextHedge = System.nanoTime() + hedgeDelay;
+                    continue;
+                }
+                pending--;
+                if (attempt.error == null) {
+                    answers.put(attempt.index, attempt.results);
+                    break;
+                }
+                if (failure == null)
+                    failure = attempt.error;
+                else
+                    failure.addSuppressed(attempt.error);
+            }
+            if (answers.isEmpty())
+                throw failure;
+            for (Attempt<R> attempt; (attempt = completions.poll()) != null; ) {
+                if (attempt.error == null)
+                    answers.put(attempt.index, attempt.results);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            final CancellationException cancellation = new CancellationException("Geocoding request cancelled");
+            cancellation.initCause(e);
+            throw new GeocodingException(cancellation.getMessage(), cancellation);
+        } finally {
+            if (parent != null)
+                parent.removeCancelListener(cancelAll);
+            // a primary which lost a hedge may finish in the background so its latency still counts
+            cancel(this.strategy == Strategy.HEDGE ? Arrays.copyOfRange(contexts, 1, contexts.length) : contexts);
+        }
+        return merge(answers.values(), key);
+    }
+
+    private <R> GeocodingContext launch(int index, ProviderCall<T, R> call, boolean recordLatency, GeocodingContext parent,
+      BlockingQueue<Attempt<R>> completions) {
+        final GeocodingContext context = parent == null ? new GeocodingContext(null, 0)
+          : new GeocodingContext(parent.getSource(), parent.getGeneration(), parent.isExplicit());
+        final LocationProvider<T> provider = this.providers.get(index);
+        try {
+            this.getExecutor().execute(() -> {
+                if (context.isCancelled()) {
+                    completions.add(new Attempt<R>(index, null, new GeocodingException("Geocoding request cancelled",
+                      new CancellationException("Geocoding request cancelled"))));
+                    return;
+                }
+                final long start = System.nanoTime();
+                final GeocodingContext previous = context.enter();
+                try {
+                    final Collection<R> results = call.call(index, provider);
+                    if (index == 0 && recordLatency)
+                        this.recordPrimaryLatency(System.nanoTime() - start);
+                    completions.add(new Attempt<R>(index, results == null ? Collections.<R>emptyList() : results, null));
+                } catch (GeocodingException e) {
+                    completions.add(new Attempt<R>(index, null, e));
+                } catch (RuntimeException e) {
+                    completions.add(new Attempt<R>(index, null, new GeocodingException(e.getMessage(), e)));
+                } finally {
+                    context.exit(previous);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            completions.add(new Attempt<R>(index, null, new GeocodingException("Composite geocoding executor is saturated", e)));
+        }
+        return context;
+    }
+
+    private static void cancel(GeocodingContext[] contexts) {
+        for (GeocodingContext context : contexts) {
+            if (context != null)
+                context.cancel();
+        }
+    }
+
+    private static boolean isCancellation(GeocodingException e) {
+        return e.getCause() instanceof CancellationException;
+    }
+
+    /**
+     * Merges result collections in order, dropping results with the same key as an earlier one, e.g. locations with the
+     * same address and coordinates
+     */
+    private static <R> Collection<R> merge(Collection<Collection<R>> answers, Function<? super R, String> key) {
+        if (answers.size() == 1)
+            return answers.iterator().next();
+        final Map<String, R> merged = new LinkedHashMap<String, R>();
+        for (Collection<R> results : answers) {
+            for (R result : results)
+                merged.putIfAbsent(key.apply(result), result);
+        }
+        return new ArrayList<R>(merged.values());
+    }
+
+    static String dedupeKey(GeocodedLocation location) {
+        final String address = location.getGeocodedAddress() == null ? ""
+          : QueryNormalizer.normalize(location.getGeocodedAddress());
+        // about a meter of precision; providers rarely agree on coordinates any closer than that
+        return address + "|" + Math.round(location.getLat() * 1e5) + "|" + Math.round(location.getLon() * 1e5);
+    }
+
+    private synchronized void recordPrimaryLatency(long nanos) {
+        this.primaryLatencies[this.primaryLatencyCount++ % LATENCY_SAMPLES] = nanos;
+    }
+
+    /**
+     * Current delay in milliseconds after which {@link Strategy#HEDGE} asks the next provider: the configured percentile
+     * of recent primary latencies once enough have been seen, otherwise the configured hedge delay
+     */
+    public synchronized long getHedgeDelay() {
+        final int count = Math.min(this.primaryLatencyCount, LATENCY_SAMPLES);
+        if (count < MIN_LATENCY_SAMPLES)
+            return this.hedgeDelayMillis;
+        final long[] sorted = Arrays.copyOf(this.primaryLatencies, count);
+        Arrays.sort(sorted);
+        final long percentile = sorted[Math.min(count - 1, (int)Math.ceil(this.hedgePercentile * count) - 1)];
+        return Math.max(this.minHedgeDelayMillis, TimeUnit.NANOSECONDS.toMillis(percentile));
+    }
+
+    /**
+     * Number of times {@link Strategy#HEDGE} asked another provider because the earlier ones were too slow
+     */
+    public int getHedgeCount() {
+        return this.hedgeCount.get();
+    }
+
+    public void setLimit(int limit) {
+        for (LocationProvider<T> provider : this.providers)
+            provider.setLimit(limit);
+    }
+
+    public List<LocationProvider<T>> getProviders() {
+        return this.providers;
+    }
+
+    public Strategy getStrategy() {
+        return this.strategy;
+    }
+
+    /**
+     * Executor running the providers; by default a shared pool of daemon threads with a bounded queue
+     */
+    public Executor getExecutor() {
+        return this.executor != null ? this.executor : DEFAULT_EXECUTOR;
+    }
+
+    private static Executor createDefaultExecutor() {
+        final AtomicInteger count = new AtomicInteger();
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(DEFAULT_THREADS, DEFAULT_THREADS, 60, TimeUnit.SECONDS,
+          new ArrayBlockingQueue<Runnable>(DEFAULT_QUEUE_SIZE), runnable -> {
+              Thread thread = new Thread(runnable, "ltf-composite-" + count.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+          });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private interface ProviderCall<T extends GeocodedLocation, R> {
+        Collection<R> call(int index, LocationProvider<T> provider) throws GeocodingException;
+    }
+
+    private static final class Attempt<T> {
+
+        private final int index;
+        private final Collection<T> results;
+        private final GeocodingException error;
+
+        private Attempt(int index, Collection<T> results, GeocodingException error) {
+            this.index = index;
+            this.results = results;
+            this.error = error;
+        }
+    }
+
+    public static final class Builder<T extends GeocodedLocation> {
+
+        private final List<LocationProvider<T>> providers = new ArrayList<LocationProvider<T>>();
+        private Strategy strategy = Strategy.FALLBACK;
+        private long hedgeDelayMillis = DEFAULT_HEDGE_DELAY_MILLIS;
+        private long minHedgeDelayMillis = DEFAULT_MIN_HEDGE_DELAY_MILLIS;
+        private double hedgePercentile = DEFAULT_HEDGE_PERCENTILE;
+        private Executor executor;
+
+        private Builder() {
+        }
+
+        /**
+         * Adds a provider; the first one added is the primary
+         */
+        public Builder<T> withLocationProvider(LocationProvider<T> locationProvider) {
+            if (locationProvider == null) {
+                throw new IllegalArgumentException("locationProvider cannot be null");
+            }
+            this.providers.add(locationProvider);
+            return this;
+        }
+
+        public Builder<T> withStrategy(Strategy strategy) {
+            if (strategy == null) {
+                throw new IllegalArgumentException("strategy cannot be null");
+            }
+            this.strategy = strategy;
+            return this;
+        }
+
+        /**
+         * Hedge delay used until enough primary latencies have been seen
+         */
+        public Builder<T> withHedgeDelay(long duration, TimeUnit unit) {
+            if (duration < 1) {
+                throw new IllegalArgumentException("duration must be greater than zero");
+            }
+            this.hedgeDelayMillis = unit.toMillis(duration);
+            return this;
+        }
+
+        /**
+         * Lower bound of the hedge delay derived from primary latencies
+         */
+        public Builder<T> withMinHedgeDelay(long duration, TimeUnit unit) {
+            if (duration < 0) {
+                throw new IllegalArgumentException("duration cannot be negative");
+            }
+            this.minHedgeDelayMillis = unit.toMillis(duration);
+            return this;
+        }
+
+        /**
+         * Percentile of recent primary latencies after which the next provider is asked, e.g. 0.95
+         */
+        public Builder<T> withHedgePercentile(double hedgePercentile) {
+            if (hedgePercentile <= 0 || hedgePercentile > 1) {
+                throw new IllegalArgumentException("hedgePercentile must be greater than zero and at most one");
+            }
+            this.hedgePercentile = hedgePercentile;
+            return this;
+        }
+
+        public Builder<T> withExecutor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        public CompositeLocationProvider<T> build() {
+            return new CompositeLocationProvider<>(this);
+        }
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2015 Elihu, LLC. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vaadin.addons.locationtextfield;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * {@link GeocodingMetrics} keeping counters in {@link LongAdder}s and latencies in lock-free histograms, so recording never
+ * blocks. Register it with {@link #register(String)} to read it through JMX.
+ *
+ * Metrics are kept per JVM. Fields and controllers serialized with a session write a registered instance as its name and
+ * resolve it to the instance registered under that name when deserialized, so passivated or replicated sessions keep
+ * reporting to the MBean; on a node where no instance is registered under the name they get a fresh, unregistered one.
+ * An unregistered instance is serialized with its counters, so every deserialized copy counts on its own.
+ */
+public class DefaultGeocodingMetrics implements GeocodingMetrics, GeocodingMetricsMXBean {
+
+    private static final long serialVersionUID = -4415935287045787213L;
+
+    private static final ConcurrentMap<String, DefaultGeocodingMetrics> REGISTERED =
+      new ConcurrentHashMap<String, DefaultGeocodingMetrics>();
+
+    private final LongAdder rpcs = new LongAdder();
+    private final Log2Histogram rpcIntervals = new Log2Histogram();
+    private final LongAdder clientQueriesGated = new LongAdder();
+    private final LongAdder providerCalls = new LongAdder();
+    private final LongAdder providerErrors = new LongAdder();
+    private final LongAdder providerEmptyResults = new LongAdder();
+    private final LongAdder providerResults = new LongAdder();
+    private final LongAdder providerInFlight = new LongAdder();
+    private final Log2Histogram providerLatencies = new Log2Histogram();
+    private final LongAdder bytesRead = new LongAdder();
+    private final Log2Histogram parseTimes = new Log2Histogram();
+    private final LongAdder suggestionsPushed = new LongAdder();
+    private final LongAdder selections = new LongAdder();
+    private final LongAdder missedSelections = new LongAdder();
+    private transient volatile String name;
+
+    /**
+     * Registers these metrics with the platform MBean server
+     * @param name name used as the {@code name} key of the object name, e.g. the provider name
+     * @return object name the metrics were registered under
+     * @throws JMException if registration fails
+     */
+    public ObjectName register(String name) throws JMException {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName objectName = new ObjectName("org.vaadin.addons.locationtextfield:type=GeocodingMetrics,name="
+          + ObjectName.quote(name));
+        server.registerMBean(this, objectName);
+        this.name = name;
+        REGISTERED.put(name, this);
+        return objectName;
+    }
+
+    @Override
+    public void rpcReceived(Object source, long sinceLastNanos) {
+        this.rpcs.increment();
+        if (sinceLastNanos >= 0)
+            this.rpcIntervals.record(sinceLastNanos);
+    }
+
+    @Override
+    public void clientQueriesGated(Object source, int count) {
+        this.clientQueriesGated.add(count);
+    }
+
+    @Override
+    public void providerStarted(String query) {
+        this.providerInFlight.increment();
+    }
+
+    @Override
+    public void providerFinished(String query, int resultCount, long nanos, GeocodingException error) {
+        this.providerInFlight.decrement();
+        this.providerCalls.increment();
+        this.providerLatencies.record(nanos);
+        if (error != null)
+            this.providerErrors.increment();
+        else if (resultCount == 0)
+            this.providerEmptyResults.increment();
+        this.providerResults.add(resultCount);
+    }
+
+    @Override
+    public void bytesRead(long bytes) {
+        this.bytesRead.add(bytes);
+    }
+
+    @Override
+    public void parseTime(long nanos) {
+        this.parseTimes.record(nanos);
+    }
+
+    @Override
+    public void suggestionsPushed(int count) {
+        this.suggestionsPushed.add(count);
+    }
+
+    @Override
+    public void selectionMade(boolean found) {
+        this.selections.increment();
+        if (!found)
+            this.missedSelections.increment();
+    }
+
+    public long getRpcCount() {
+        return this.rpcs.sum();
+    }
+
+    public long getRpcIntervalP50Micros() {
+        return micros(this.rpcIntervals.getPercentile(0.5));
+    }
+
+    public long getClientQueriesGated() {
+        return this.clientQueriesGated.sum();
+    }
+
+    public long getProviderCallCount() {
+        return this.providerCalls.sum();
+    }
+
+    public long getProviderErrorCount() {
+        return this.providerErrors.sum();
+    }
+
+    public long getProviderEmptyResultCount() {
+        return this.providerEmptyResults.sum();
+    }
+
+    public long getProviderResultCount() {
+        return this.providerResults.sum();
+    }
+
+    public long getProviderInFlight() {
+        return this.providerInFlight.sum();
+    }
+
+    public long getProviderLatencyMeanMicros() {
+        return micros(this.providerLatencies.getMean());
+    }
+
+    public long getProviderLatencyP50Micros() {
+        return micros(this.providerLatencies.getPercentile(0.5));
+    }
+
+    public long getProviderLatencyP95Micros() {
+        return micros(this.providerLatencies.getPercentile(0.95));
+    }
+
+    public long getProviderLatencyP99Micros() {
+        return micros(this.providerLatencies.getPercentile(0.99));
+    }
+
+    public long getBytesRead() {
+        return this.bytesRead.sum();
+    }
+
+    public long getParseTimeP50Micros() {
+        return micros(this.parseTimes.getPercentile(0.5));
+    }
+
+    public long getParseTimeP95Micros() {
+        return micros(this.parseTimes.getPercentile(0.95));
+    }
+
+    public long getSuggestionsPushed() {
+        return this.suggestionsPushed.sum();
+    }
+
+    public long getSelectionCount() {
+        return this.selections.sum();
+    }
+
+    public long getMissedSelectionCount() {
+        return this.missedSelections.sum();
+    }
+
+    /**
+     * Clears all counters and histograms except the number of provider calls in flight
+     */
+    public void reset() {
+        this.rpcs.reset();
+        this.rpcIntervals.reset();
+        this.clientQueriesGated.reset();
+        this.providerCalls.reset();
+        this.providerErrors.reset();
+        this.providerEmptyResults.reset();
+        this.providerResults.reset();
+        this.providerLatencies.reset();
+        this.bytesRead.reset();
+        this.parseTimes.reset();
+        this.suggestionsPushed.reset();
+        this.selections.reset();
+        this.missedSelections.reset();
+    }
+
+    private Object writeReplace() throws ObjectStreamException {
+        return this.name != null ? new Registered(this.name) : this;
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    /**
+     * Serialized form of a registered instance
+     */
+    private static final class Registered implements Serializable {
+
+        private static final long serialVersionUID = 2718342907165283470L;
+
+        private final String name;
+
+        private Registered(String name) {
+            this.name = name;
+        }
+
+        private Object readResolve() throws ObjectStreamException {
+            final DefaultGeocodingMetrics metrics = REGISTERED.get(this.name);
+            return metrics != null ? metrics : new DefaultGeocodingMetrics();
+        }
+    }
+}
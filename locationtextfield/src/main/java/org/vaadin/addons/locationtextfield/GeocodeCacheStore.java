@@ -0,0 +1,447 @@
+/*
+ * Copyright (C) 2015 Elihu, LLC. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vaadin.addons.locationtextfield;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Disk-backed store of geocoding results made of fixed-size, memory-mapped, append-only segment files. Each record holds
+ * the expiry time, the key and the results encoded with {@link GeocodedLocationCodec}, each followed by the fields the
+ * {@link PersistentCachingLocationProvider.LocationCodec} writes for its subtype. The record length is written after
+ * the record body so a torn write reads as the end of the segment. The in-memory index is rebuilt at startup by scanning
+ * only the record headers. Segments whose live data falls under a threshold are compacted into the active segment in the
+ * background and deleted.
+ *
+ * Stores are shared per directory within the JVM; every {@link #open} must be balanced by a {@link #close()}.
+ */
+final class GeocodeCacheStore implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(GeocodeCacheStore.class);
+
+    private static final int MAGIC = 0x4C544643;    // "LTFC"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final String PREFIX = "segment-";
+    private static final String SUFFIX = ".ltfc";
+
+    private static final Map<File, GeocodeCacheStore> OPEN_STORES = new HashMap<File, GeocodeCacheStore>();
+
+    private final File directory;
+    private final int segmentSize;
+    private final double compactionThreshold;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final TreeMap<Integer, Segment> segments = new TreeMap<Integer, Segment>();
+    private final Map<String, Pointer> index = new HashMap<String, Pointer>();
+    private final ScheduledExecutorService compactor;
+    private Segment active;
+    private int references;
+
+    private GeocodeCacheStore(File directory, int segmentSize, long compactionIntervalMillis, double compactionThreshold)
+      throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.compactionThreshold = compactionThreshold;
+        this.load();
+        this.compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ltf-geocode-cache-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.compactor.scheduleWithFixedDelay(() -> {
+            try {
+                this.compact();
+            } catch (Exception e) {
+                LOGGER.warn("Error compacting geocode cache in {}", this.directory, e);
+            }
+        }, compactionIntervalMillis, compactionIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Opens the store in the given directory, sharing an already open store for the same directory
+     * @param directory directory holding the segment files; created if necessary
+     * @param segmentSize size in bytes of each segment file
+     * @param compactionIntervalMillis delay between background compactions
+     * @param compactionThreshold segments with a smaller fraction of live data are compacted
+     * @return store
+     * @throws IOException if the directory or one of its segments cannot be opened
+     */
+    static synchronized GeocodeCacheStore open(File directory, int segmentSize, long compactionIntervalMillis,
+      double compactionThreshold) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Unable to create cache directory " + directory);
+        final File canonical = directory.getCanonicalFile();
+        GeocodeCacheStore store = OPEN_STORES.get(canonical);
+        if (store == null) {
+            store = new GeocodeCacheStore(canonical, segmentSize, compactionIntervalMillis, compactionThreshold);
+            OPEN_STORES.put(canonical, store);
+        }
+        store.references++;
+        return store;
+    }
+
+    /**
+     * Looks up the results stored under the given key
+     * @param key cache key
+     * @param now current time in millis
+     * @param codec creates the results and reads their subtype fields
+     * @return stored results or null if absent or expired
+     * @throws IOException if the record is corrupt
+     */
+    <T extends GeocodedLocation> List<T> get(String key, long now,
+      PersistentCachingLocationProvider.LocationCodec<T> codec) throws IOException {
+        this.lock.readLock().lock();
+        try {
+            final Pointer pointer = this.index.get(key);
+            if (pointer == null || pointer.expiresAt <= now)
+                return null;
+            final DataInputStream in = pointer.segment.open(pointer.offset + 4 + 8);
+            if (!key.equals(in.readUTF()))
+                throw new IOException("Index entry for " + key + " points to another record");
+            final int count = in.readInt();
+            final List<T> results = new ArrayList<T>(count);
+            String originalAddress = null;
+            for (int i = 0; i < count; i++) {
+                T location = codec.newLocation();
+                GeocodedLocationCodec.readInto(in, location);
+                codec.readFields(in, location);
+                // results of one query share the query string rather than holding a copy each
+                if (originalAddress != null && originalAddress.equals(location.getOriginalAddress()))
+                    location.setOriginalAddress(originalAddress);
+                else
+                    originalAddress = location.getOriginalAddress();
+                results.add(location);
+            }
+            return results;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Appends the results under the given key, replacing any previous record for that key
+     * @param key cache key
+     * @param results results to store
+     * @param expiresAt time in millis after which the record is stale
+     * @param codec writes the subtype fields of the results
+     * @throws IOException if the record cannot be written
+     */
+    <T extends GeocodedLocation> void put(String key, Collection<? extends T> results, long expiresAt,
+      PersistentCachingLocationProvider.LocationCodec<T> codec) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(expiresAt);
+        out.writeUTF(key);
+        out.writeInt(results.size());
+        for (T location : results) {
+            GeocodedLocationCodec.write(out, location);
+            codec.writeFields(out, location);
+        }
+        out.flush();
+        final byte[] record = bytes.toByteArray();
+        if (HEADER_SIZE + 4 + record.length > this.segmentSize) {
+            LOGGER.debug("Not caching {}; record of {} bytes exceeds segment size", key, record.length);
+            return;
+        }
+
+        this.lock.writeLock().lock();
+        try {
+            if (this.active == null)
+                throw new IOException("Store is closed");
+            final int offset = this.append(record, 0, record.length);
+            this.index.put(key, new Pointer(this.active, offset, record.length, expiresAt));
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Number of keys in the index, including expired ones not yet compacted
+     */
+    int size() {
+        this.lock.readLock().lock();
+        try {
+            return this.index.size();
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Copies the live records of sparsely used segments into the active segment, then deletes those segments
+     */
+    void compact() throws IOException {
+        this.lock.writeLock().lock();
+        try {
+            if (this.active == null)
+                return;
+            final long now = System.currentTimeMillis();
+            final Map<Segment, Long> live = new HashMap<Segment, Long>();
+            for (Iterator<Pointer> it = this.index.values().iterator(); it.hasNext(); ) {
+                Pointer pointer = it.next();
+                if (pointer.expiresAt <= now) {
+                    it.remove();
+                } else {
+                    Long bytes = live.get(pointer.segment);
+                    live.put(pointer.segment, (bytes == null ? 0 : bytes) + 4 + pointer.length);
+                }
+            }
+
+            final List<Segment> stale = new ArrayList<Segment>();
+            for (Segment segment : this.segments.values()) {
+                if (segment == this.active)
+                    continue;
+                Long bytes = live.get(segment);
+                int used = segment.writePosition - HEADER_SIZE;
+                if (used <= 0 || (bytes == null ? 0 : bytes) < used * this.compactionThreshold)
+                    stale.add(segment);
+            }
+            if (stale.isEmpty())
+                return;
+
+            // segments written with a larger segment size may hold records which no longer fit in one
+            byte[] buffer = new byte[0];
+            for (Iterator<Map.Entry<String, Pointer>> it = this.index.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<String, Pointer> entry = it.next();
+                Pointer pointer = entry.getValue();
+                if (!stale.contains(pointer.segment))
+                    continue;
+                if (HEADER_SIZE + 4 + pointer.length > this.segmentSize) {
+                    LOGGER.debug("Dropping {} from cache; record of {} bytes exceeds segment size", entry.getKey(),
+                      pointer.length);
+                    it.remove();
+                    continue;
+                }
+                if (buffer.length < pointer.length)
+                    buffer = new byte[pointer.length];
+                ByteBuffer source = pointer.segment.buffer.duplicate();
+                source.position(pointer.offset + 4);
+                source.get(buffer, 0, pointer.length);
+                int offset = this.append(buffer, 0, pointer.length);
+                entry.setValue(new Pointer(this.active, offset, pointer.length, pointer.expiresAt));
+            }
+            for (Segment segment : stale) {
+                this.segments.remove(segment.id);
+                segment.close();
+                if (!segment.file.delete())
+                    LOGGER.warn("Unable to delete compacted cache segment {}", segment.file);
+            }
+            LOGGER.debug("Compacted {} geocode cache segments in {}", stale.size(), this.directory);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Releases this reference to the store; the store is closed once every reference is released
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (GeocodeCacheStore.class) {
+            if (--this.references > 0)
+                return;
+            OPEN_STORES.remove(this.directory);
+        }
+        this.compactor.shutdownNow();
+        this.lock.writeLock().lock();
+        try {
+            for (Segment segment : this.segments.values()) {
+                segment.buffer.force();
+                segment.close();
+            }
+            this.segments.clear();
+            this.index.clear();
+            this.active = null;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    private int append(byte[] record, int start, int length) throws IOException {
+        if (this.active.writePosition + 4 + length > this.active.buffer.capacity())
+            this.active = this.createSegment(this.segments.lastKey() + 1);
+        final int offset = this.active.writePosition;
+        final ByteBuffer target = this.active.buffer.duplicate();
+        target.position(offset + 4);
+        target.put(record, start, length);
+        this.active.buffer.putInt(offset, length);
+        this.active.writePosition = offset + 4 + length;
+        return offset;
+    }
+
+    private void load() throws IOException {
+        final File[] files = this.directory.listFiles((dir, name) -> name.startsWith(PREFIX) && name.endsWith(SUFFIX));
+        if (files != null) {
+            for (File file : files) {
+                int id;
+                try {
+                    id = Integer.parseInt(file.getName().substring(PREFIX.length(), file.getName().length() - SUFFIX.length()));
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                Segment segment = new Segment(id, file, (int)Math.max(file.length(), HEADER_SIZE));
+                if (segment.buffer.getInt(0) != MAGIC || segment.buffer.getInt(4) != VERSION) {
+                    LOGGER.warn("Discarding unrecognized geocode cache segment {}", file);
+                    segment.close();
+                    if (!file.delete())
+                        LOGGER.warn("Unable to delete unrecognized geocode cache segment {}", file);
+                    continue;
+                }
+                this.segments.put(id, segment);
+            }
+        }
+
+        final long now = System.currentTimeMillis();
+        for (Segment segment : this.segments.values())
+            this.scan(segment, now);
+        if (this.segments.isEmpty())
+            this.active = this.createSegment(0);
+        else
+            this.active = this.segments.lastEntry().getValue();
+    }
+
+    private void scan(Segment segment, long now) {
+        final int limit = segment.buffer.capacity();
+        int position = HEADER_SIZE;
+        while (position + 4 + 8 <= limit) {
+            final int length = segment.buffer.getInt(position);
+            if (length <= 0 || position + 4 + length > limit)
+                break;
+            final long expiresAt = segment.buffer.getLong(position + 4);
+            final String key;
+            try {
+                key = segment.open(position + 4 + 8).readUTF();
+            } catch (IOException e) {
+                // a torn or corrupt record ends the segment; the next append overwrites it
+                LOGGER.warn("Truncating geocode cache segment {} at corrupt record at offset {}", segment.file, position);
+                break;
+            }
+            if (expiresAt > now)
+                this.index.put(key, new Pointer(segment, position, length, expiresAt));
+            else
+                this.index.remove(key);
+            position += 4 + length;
+        }
+        segment.writePosition = position;
+    }
+
+    private Segment createSegment(int id) throws IOException {
+        final File file = new File(this.directory, String.format("%s%08d%s", PREFIX, id, SUFFIX));
+        final Segment segment = new Segment(id, file, this.segmentSize);
+        segment.buffer.putInt(0, MAGIC);
+        segment.buffer.putInt(4, VERSION);
+        segment.writePosition = HEADER_SIZE;
+        this.segments.put(id, segment);
+        return segment;
+    }
+
+    private static final class Segment {
+
+        private final int id;
+        private final File file;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private int writePosition;
+
+        private Segment(int id, File file, int size) throws IOException {
+            this.id = id;
+            this.file = file;
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                this.channel = raf.getChannel();
+                this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            } catch (IOException e) {
+                raf.close();
+                throw e;
+            }
+        }
+
+        private DataInputStream open(int position) {
+            final ByteBuffer source = this.buffer.duplicate();
+            source.position(position);
+            return new DataInputStream(new ByteBufferInputStream(source));
+        }
+
+        private void close() throws IOException {
+            this.channel.close();
+        }
+    }
+
+    private static final class Pointer {
+
+        private final Segment segment;
+        private final int offset;
+        private final int length;
+        private final long expiresAt;
+
+        private Pointer(Segment segment, int offset, int length, long expiresAt) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return this.buffer.hasRemaining() ? this.buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!this.buffer.hasRemaining())
+                return -1;
+            len = Math.min(len, this.buffer.remaining());
+            this.buffer.get(b, off, len);
+            return len;
+        }
+    }
+}
@@ -21,14 +21,24 @@ package org.vaadin.addons.locationtextfield;
 
 import java.util.Objects;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 
 /**
- * POJO for the constituent parts of a geocoded address
+ * POJO for the constituent parts of a geocoded address. The low-cardinality components which repeat across results, i.e.
+ * city, state, county and country, are canonicalized through a bounded shared dictionary.
+ *
+ * The serialized form is a compact binary encoding of the fields rather than the default per-field form.
  */
 public class GeocodedLocation implements Serializable, Comparable<GeocodedLocation> {
 
-    private static final long serialVersionUID = 6508914380259212255L;
+    private static final long serialVersionUID = -2183327021470584305L;
+
+    // fields are written by writeObject in a compact encoding
+    private static final ObjectStreamField[] serialPersistentFields = new ObjectStreamField[0];
 
     private String originalAddress;
     private String geocodedAddress;
@@ -111,7 +121,7 @@ public class GeocodedLocation implements Serializable, Comparable<GeocodedLocati
         return locality;
     }
     public void setLocality(String locality) {
-        this.locality = locality;
+        this.locality = LocationStrings.canonicalize(locality);
     }
 
     /**
@@ -121,7 +131,7 @@ public class GeocodedLocation implements Serializable, Comparable<GeocodedLocati
         return administrativeAreaLevel1;
     }
     public void setAdministrativeAreaLevel1(String administrativeAreaLevel1) {
-        this.administrativeAreaLevel1 = administrativeAreaLevel1;
+        this.administrativeAreaLevel1 = LocationStrings.canonicalize(administrativeAreaLevel1);
     }
 
     /**
@@ -131,14 +141,14 @@ public class GeocodedLocation implements Serializable, Comparable<GeocodedLocati
         return administrativeAreaLevel2;
     }
     public void setAdministrativeAreaLevel2(String administrativeAreaLevel2) {
-        this.administrativeAreaLevel2 = administrativeAreaLevel2;
+        this.administrativeAreaLevel2 = LocationStrings.canonicalize(administrativeAreaLevel2);
     }
 
     public String getCountry() {
         return country;
     }
     public void setCountry(String country) {
-        this.country = country;
+        this.country = LocationStrings.canonicalize(country);
     }
 
     /**
@@ -207,6 +217,16 @@ public class GeocodedLocation implements Serializable, Comparable<GeocodedLocati
         return loc1.compareTo(loc2);
     }
 
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        GeocodedLocationCodec.write(out, this);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        GeocodedLocationCodec.readInto(in, this);
+    }
+
     public static final class Builder {
 
         private String originalAddress;
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2015 Elihu, LLC. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vaadin.addons.locationtextfield;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Compact binary encoding of the fields of a {@link org.vaadin.addons.locationtextfield.GeocodedLocation}. A bit mask
+ * records which of the string fields are present and whether the location is ambiguous, strings are written as modified
+ * UTF-8, lat/lon as raw doubles and the {@link org.vaadin.addons.locationtextfield.LocationType} as its ordinal.
+ */
+final class GeocodedLocationCodec {
+
+    private static final int ORIGINAL_ADDRESS = 1;
+    private static final int GEOCODED_ADDRESS = 1 << 1;
+    private static final int STREET_NUMBER = 1 << 2;
+    private static final int ROUTE = 1 << 3;
+    private static final int LOCALITY = 1 << 4;
+    private static final int ADMIN_LEVEL_1 = 1 << 5;
+    private static final int ADMIN_LEVEL_2 = 1 << 6;
+    private static final int COUNTRY = 1 << 7;
+    private static final int POSTAL_CODE = 1 << 8;
+    private static final int TYPE = 1 << 9;
+    private static final int AMBIGUOUS = 1 << 10;
+
+    private static final LocationType[] TYPES = LocationType.values();
+
+    private GeocodedLocationCodec() {
+        // nuthin'
+    }
+
+    /**
+     * Writes the fields of the given location
+     * @param out target
+     * @param location location to encode
+     * @throws IOException if writing fails
+     */
+    static void write(DataOutput out, GeocodedLocation location) throws IOException {
+        int mask = 0;
+        mask |= bit(location.getOriginalAddress(), ORIGINAL_ADDRESS);
+        mask |= bit(location.getGeocodedAddress(), GEOCODED_ADDRESS);
+        mask |= bit(location.getStreetNumber(), STREET_NUMBER);
+        mask |= bit(location.getRoute(), ROUTE);
+        mask |= bit(location.getLocality(), LOCALITY);
+        mask |= bit(location.getAdministrativeAreaLevel1(), ADMIN_LEVEL_1);
+        mask |= bit(location.getAdministrativeAreaLevel2(), ADMIN_LEVEL_2);
+        mask |= bit(location.getCountry(), COUNTRY);
+        mask |= bit(location.getPostalCode(), POSTAL_CODE);
+        mask |= bit(location.getType(), TYPE);
+        if (location.isAmbiguous())
+            mask |= AMBIGUOUS;
+
+        out.writeShort(mask);
+        writeString(out, location.getOriginalAddress());
+        writeString(out, location.getGeocodedAddress());
+        writeString(out, location.getStreetNumber());
+        writeString(out, location.getRoute());
+        writeString(out, location.getLocality());
+        writeString(out, location.getAdministrativeAreaLevel1());
+        writeString(out, location.getAdministrativeAreaLevel2());
+        writeString(out, location.getCountry());
+        writeString(out, location.getPostalCode());
+        out.writeDouble(location.getLat());
+        out.writeDouble(location.getLon());
+        if (location.getType() != null)
+            out.writeByte(location.getType().ordinal());
+    }
+
+    /**
+     * Reads fields previously written by {@link #write(java.io.DataOutput, GeocodedLocation)} into the given location
+     * @param in source
+     * @param location location to populate
+     * @throws IOException if reading fails or the data is corrupt
+     */
+    static void readInto(DataInput in, GeocodedLocation location) throws IOException {
+        final int mask = in.readUnsignedShort();
+        location.setOriginalAddress(readString(in, mask, ORIGINAL_ADDRESS));
+        location.setGeocodedAddress(readString(in, mask, GEOCODED_ADDRESS));
+        location.setStreetNumber(readString(in, mask, STREET_NUMBER));
+        location.setRoute(readString(in, mask, ROUTE));
+        location.setLocality(readString(in, mask, LOCALITY));
+        location.setAdministrativeAreaLevel1(readString(in, mask, ADMIN_LEVEL_1));
+        location.setAdministrativeAreaLevel2(readString(in, mask, ADMIN_LEVEL_2));
+        location.setCountry(readString(in, mask, COUNTRY));
+        location.setPostalCode(readString(in, mask, POSTAL_CODE));
+        location.setLat(in.readDouble());
+        location.setLon(in.readDouble());
+        location.setAmbiguous((mask & AMBIGUOUS) != 0);
+        if ((mask & TYPE) != 0) {
+            int ordinal = in.readUnsignedByte();
+            if (ordinal >= TYPES.length)
+                throw new IOException("Unknown location type ordinal: " + ordinal);
+            location.setType(TYPES[ordinal]);
+        } else {
+            location.setType(null);
+        }
+    }
+
+    private static int bit(Object value, int bit) {
+        return value == null ? 0 : bit;
+    }
+
+    private static void writeString(DataOutput out, String value) throws IOException {
+        if (value != null)
+            out.writeUTF(value);
+    }
+
+    private static String readString(DataInput in, int mask, int bit) throws IOException {
+        return (mask & bit) == 0 ? null : in.readUTF();
+    }
+}
@@ -32,4 +32,16 @@ public interface GeocoderController<E extends GeocodedLocation> {
      * @param query address to query
      */
     void geocode(LocationTextField<E> ltf, String query);
+
+    /**
+     * Resolves a suggestion added through {@link LocationTextField#setLazySuggestions(java.util.Collection)} into a location
+     * once the user selects it. Returns null by default, i.e. controllers which never add lazy suggestions need not implement
+     * it.
+     * @param ltf target field
+     * @param suggestion selected suggestion
+     * @return resolved location, or null if the suggestion could not be resolved
+     */
+    default E resolve(LocationTextField<E> ltf, LocationSuggestion suggestion) {
+        return null;
+    }
 }
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2015 Elihu, LLC. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vaadin.addons.locationtextfield;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+
+/**
+ * Transport used by {@link org.vaadin.addons.locationtextfield.URLConnectionGeocoder} to fetch the response for a URL.
+ * Implementations must honour the cancellation of the current {@link GeocodingContext}, if any.
+ */
+public interface GeocoderTransport extends Serializable {
+
+    /**
+     * Performs an HTTP GET request for the URL
+     * @param url full URL to fetch
+     * @return response body; the caller must close it to release the connection
+     * @throws IOException if the request fails, times out or returns an error status
+     */
+    InputStream get(String url) throws IOException;
+}
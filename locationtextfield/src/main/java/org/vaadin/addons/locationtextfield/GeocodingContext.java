@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2015 Elihu, LLC. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vaadin.addons.locationtextfield;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Describes the geocoding request being performed by the current thread: the field (source) which asked for it, the
+ * generation of the query within that field and whether it was explicitly requested or is a speculative query typed by
+ * the user. Controllers make the context current around the call to the
+ * {@link LocationProvider} so providers can find out about it through {@link #current()}.
+ *
+ * A context may be cancelled from another thread once a newer query supersedes it. Cancelling interrupts the thread
+ * performing the request and runs any registered cancel listeners, which providers use to abort their connections.
+ */
+public final class GeocodingContext {
+
+    private static final ThreadLocal<GeocodingContext> CURRENT = new ThreadLocal<GeocodingContext>();
+
+    private final Object source;
+    private final long generation;
+    private final boolean explicit;
+    private final List<Runnable> cancelListeners = new ArrayList<Runnable>();
+    private Thread thread;
+    private boolean cancelled;
+
+    /**
+     * @param source object which requested geocoding, typically a {@link LocationTextField}
+     * @param generation sequence number of the query within the source
+     */
+    public GeocodingContext(Object source, long generation) {
+        this(source, generation, true);
+    }
+
+    /**
+     * @param source object which requested geocoding, typically a {@link LocationTextField}
+     * @param generation sequence number of the query within the source
+     * @param explicit false if the query is speculative, e.g. typed by the user, and may be delayed or dropped in favor of
+     *   explicit queries
+     */
+    public GeocodingContext(Object source, long generation, boolean explicit) {
+        this.source = source;
+        this.generation = generation;
+        this.explicit = explicit;
+    }
+
+    /**
+     * The context of the request being performed by the calling thread
+     * @return current context or null if none
+     */
+    public static GeocodingContext current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Makes this the current context of the calling thread. Must be followed by {@link #exit(GeocodingContext)} in a
+     * finally block.
+     * @return the previously current context, if any
+     */
+    public GeocodingContext enter() {
+        final GeocodingContext previous = CURRENT.get();
+        CURRENT.set(this);
+        synchronized (this) {
+            this.thread = Thread.currentThread();
+        }
+        return previous;
+    }
+
+    /**
+     * Restores the context which was current before {@link #enter()}. Any interrupt caused by cancelling this context is
+     * cleared so it does not leak into unrelated work on a pooled thread.
+     * @param previous value returned by {@link #enter()}
+     */
+    public void exit(GeocodingContext previous) {
+        synchronized (this) {
+            this.thread = null;
+            if (this.cancelled)
+                Thread.interrupted();
+        }
+        if (previous == null)
+            CURRENT.remove();
+        else
+            CURRENT.set(previous);
+    }
+
+    public Object getSource() {
+        return this.source;
+    }
+
+    public long getGeneration() {
+        return this.generation;
+    }
+
+    /**
+     * Whether the query was requested explicitly rather than speculatively while the user is typing
+     */
+    public boolean isExplicit() {
+        return this.explicit;
+    }
+
+    public synchronized boolean isCancelled() {
+        return this.cancelled;
+    }
+
+    /**
+     * Cancels the request; the thread currently inside this context is interrupted and all cancel listeners are run
+     */
+    public void cancel() {
+        final List<Runnable> listeners;
+        synchronized (this) {
+            if (this.cancelled)
+                return;
+            this.cancelled = true;
+            if (this.thread != null)
+                this.thread.interrupt();
+            listeners = new ArrayList<Runnable>(this.cancelListeners);
+            this.cancelListeners.clear();
+        }
+        for (Runnable listener : listeners)
+            listener.run();
+    }
+
+    /**
+     * Registers an action run when this context is cancelled, e.g. closing a connection. If the context is already
+     * cancelled the action is run immediately.
+     * @param listener action to run
+     */
+    public void addCancelListener(Runnable listener) {
+        synchronized (this) {
+            if (!this.cancelled) {
+                this.cancelListeners.add(listener);
+                return;
+            }
+        }
+        listener.run();
+    }
+
+    public synchronized void removeCancelListener(Runnable listener) {
+        this.cancelListeners.remove(listener);
+    }
+}
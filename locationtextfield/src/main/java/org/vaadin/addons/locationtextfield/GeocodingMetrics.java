@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2015 Elihu, LLC. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vaadin.addons.locationtextfield;
+
+import java.io.Serializable;
+
+/**
+ * Listener notified at each stage of geocoding, e.g. to feed a metrics system. {@link AbstractGeocoderController},
+ * {@link URLConnectionGeocoder} and {@link LocationTextField} call into it; all methods do nothing by default. Methods may
+ * be called concurrently from several threads and should return quickly.
+ *
+ * See {@link DefaultGeocodingMetrics} for an implementation keeping counters and latency histograms readable through JMX.
+ */
+public interface GeocodingMetrics extends Serializable {
+
+    /**
+     * Metrics which ignore everything; the default of all instrumented classes
+     */
+    GeocodingMetrics NONE = new GeocodingMetrics() {
+        private static final long serialVersionUID = -6042453307417839106L;
+    };
+
+    /**
+     * A field received a query typed by the user
+     * @param source field which received the query
+     * @param sinceLastNanos time since the previous query received by the same field, or -1 for its first query
+     */
+    default void rpcReceived(Object source, long sinceLastNanos) {
+    }
+
+    /**
+     * A field's client did not send queries because the suggestions it showed already answered them
+     * @param source field whose client gated the queries
+     * @param count number of queries gated since the client's previous report
+     */
+    default void clientQueriesGated(Object source, int count) {
+    }
+
+    /**
+     * A controller is about to call its {@link LocationProvider}
+     * @param query query being geocoded
+     */
+    default void providerStarted(String query) {
+    }
+
+    /**
+     * A controller's call to its {@link LocationProvider} returned
+     * @param query query which was geocoded
+     * @param resultCount number of results; 0 if the call failed
+     * @param nanos duration of the call
+     * @param error failure, or null if the call succeeded
+     */
+    default void providerFinished(String query, int resultCount, long nanos, GeocodingException error) {
+    }
+
+    /**
+     * A {@link URLConnectionGeocoder} read a response body
+     * @param bytes number of (decoded) bytes read
+     */
+    default void bytesRead(long bytes) {
+    }
+
+    /**
+     * A {@link URLConnectionGeocoder} parsed a response; since responses are parsed while they are read this includes the
+     * time spent waiting for the body
+     * @param nanos duration of parsing
+     */
+    default void parseTime(long nanos) {
+    }
+
+    /**
+     * A controller handed suggestions to a field
+     * @param count number of suggestions
+     */
+    default void suggestionsPushed(int count) {
+    }
+
+    /**
+     * The user selected a suggestion
+     * @param found false if the selected suggestion was no longer known to the field
+     */
+    default void selectionMade(boolean found) {
+    }
+}
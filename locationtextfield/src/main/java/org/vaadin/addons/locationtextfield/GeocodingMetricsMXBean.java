@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2015 Elihu, LLC. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vaadin.addons.locationtextfield;
+
+/**
+ * JMX view of {@link DefaultGeocodingMetrics}. Latencies are in microseconds and approximate (see {@link Log2Histogram}).
+ */
+public interface GeocodingMetricsMXBean {
+
+    long getRpcCount();
+
+    long getRpcIntervalP50Micros();
+
+    long getClientQueriesGated();
+
+    long getProviderCallCount();
+
+    long getProviderErrorCount();
+
+    long getProviderEmptyResultCount();
+
+    long getProviderResultCount();
+
+    long getProviderInFlight();
+
+    long getProviderLatencyMeanMicros();
+
+    long getProviderLatencyP50Micros();
+
+    long getProviderLatencyP95Micros();
+
+    long getProviderLatencyP99Micros();
+
+    long getBytesRead();
+
+    long getParseTimeP50Micros();
+
+    long getParseTimeP95Micros();
+
+    long getSuggestionsPushed();
+
+    long getSelectionCount();
+
+    long getMissedSelectionCount();
+
+    void reset();
+}
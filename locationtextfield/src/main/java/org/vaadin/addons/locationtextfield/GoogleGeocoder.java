@@ -20,15 +20,15 @@
 
 package org.vaadin.addons.locationtextfield;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedHashSet;
-import java.util.Set;
-
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
+import java.util.List;
 
 /**
  * {@link org.vaadin.addons.locationtextfield.LocationProvider} which uses Google.
@@ -36,7 +36,8 @@ import org.json.JSONObject;
  * This class can only be used when used in conjunction with Google Maps API
  * See http://code.google.com/apis/maps/documentation/geocoding/ for details
  */
-public final class GoogleGeocoder extends URLConnectionGeocoder<GeocodedLocation> {
+public final class GoogleGeocoder extends URLConnectionGeocoder<GeocodedLocation>
+  implements ReverseLocationProvider<GeocodedLocation> {
 
     private static final long serialVersionUID = -6473726121777274001L;
     private static final String URL = "maps.googleapis.com/maps/api/geocode/json";
@@ -60,85 +61,185 @@ public final class GoogleGeocoder extends URLConnectionGeocoder<GeocodedLocation
           + "&sensor=false";
     }
 
+    @Override
+    protected String getReverseURL(double lat, double lon) {
+        return (this.useSecureConnection ? SECURE_URL : INSECURE_URL) + "?latlng=" + formatCoordinate(lat) + ","
+          + formatCoordinate(lon) + "&sensor=false";
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Collection<GeocodedLocation> reverseGeocode(double lat, double lon, int limit) throws GeocodingException {
+        return this.fetchReverse(lat, lon, limit);
+    }
+
     protected Collection<GeocodedLocation> createLocations(String address, String input) throws GeocodingException {
-        final Set<GeocodedLocation> locations = new LinkedHashSet<GeocodedLocation>();
+        return this.createLocations(address, new StringReader(input));
+    }
+
+    /**
+     * Maps the response to locations while it is being read. Reading stops as soon as {@link #getLimit()} results are built.
+     */
+    @Override
+    protected Collection<GeocodedLocation> createLocations(String address, Reader input) throws GeocodingException {
+        return this.createLocations(address, input, this.getLimit());
+    }
+
+    /**
+     * Reverse lookups are answered in the forward format; reading stops at the limit of the reverse lookup
+     */
+    @Override
+    protected Collection<GeocodedLocation> createReverseLocations(String address, Reader input, int limit)
+      throws GeocodingException {
+        return this.createLocations(address, input, limit);
+    }
+
+    private Collection<GeocodedLocation> createLocations(String address, Reader input, int limit) throws GeocodingException {
+        final List<GeocodedLocation> locations = new ArrayList<GeocodedLocation>();
+        final JsonReader reader = new JsonReader(input);
+        String status = null;
+        boolean ambiguous = false;
         try {
-            JSONObject obj = new JSONObject(input);
-            if ("OK".equals(obj.getString("status"))) {
-                JSONArray results = obj.getJSONArray("results");
-                boolean ambiguous = results.length() > 1;
-                int limit = results.length();
-                if (this.getLimit() > 0)
-                    limit = Math.min(this.getLimit(), limit);
-                for (int i = 0; i < limit; i++) {
-                    JSONObject result = results.getJSONObject(i);
-                    GeocodedLocation loc = new GeocodedLocation();
-                    loc.setAmbiguous(ambiguous);
-                    loc.setOriginalAddress(address);
-                    loc.setGeocodedAddress(result.getString("formatted_address"));
-                    JSONArray components = result.getJSONArray("address_components");
-                    for (int j = 0; j < components.length(); j++) {
-                        JSONObject component = components.getJSONObject(j);
-                        String value = component.getString("short_name");
-                        JSONArray types = component.getJSONArray("types");
-                        for (int k = 0; k < types.length(); k++) {
-                            String type = types.getString(k);
-                            if ("street_number".equals(type))
-                                loc.setStreetNumber(value);
-                            else if ("route".equals(type))
-                                loc.setRoute(value);
-                            else if ("locality".equals(type))
-                                loc.setLocality(value);
-                            else if ("administrative_area_level_1".equals(type))
-                                loc.setAdministrativeAreaLevel1(value);
-                            else if ("administrative_area_level_2".equals(type))
-                                loc.setAdministrativeAreaLevel2(value);
-                            else if ("country".equals(type))
-                                loc.setCountry(value);
-                            else if ("postal_code".equals(type))
-                                loc.setPostalCode(value);
-                        }
-                    }
-                    JSONObject location = result.getJSONObject("geometry").getJSONObject("location");
-                    loc.setLat(location.getDouble("lat"));
-                    loc.setLon(location.getDouble("lng"));
-                    loc.setType(getLocationType(result));
-                    locations.add(loc);
+            reader.beginObject();
+            while (reader.hasNext()) {
+                final String name = reader.nextName();
+                if ("status".equals(name)) {
+                    status = reader.nextString();
+                } else if ("results".equals(name)) {
+                    reader.beginArray();
+                    while (reader.hasNext() && (limit <= 0 || locations.size() < limit))
+                        locations.add(this.readResult(reader, address));
+                    ambiguous = locations.size() > 1 || reader.hasNext();
+                    if (reader.hasNext())
+                        break;      // limit reached; no need to read the rest
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
                 }
             }
-        } catch (JSONException e) {
+        } catch (IOException e) {
             throw new GeocodingException(e.getMessage(), e);
         }
-        return locations;
+        if (status != null && !"OK".equals(status))
+            return new LinkedHashSet<GeocodedLocation>();
+        for (GeocodedLocation loc : locations)
+            loc.setAmbiguous(ambiguous);
+        return new LinkedHashSet<GeocodedLocation>(locations);
     }
 
-    private LocationType getLocationType(JSONObject result) throws JSONException {
-        if (!result.has("types"))
-            return LocationType.UNKNOWN;
-        JSONArray types = result.getJSONArray("types");
-        for (int i = 0; i < types.length(); i++) {
-            final String type = types.getString(i);
-            if ("street_address".equals(type))
-                return LocationType.STREET_ADDRESS;
+    private GeocodedLocation readResult(JsonReader reader, String address) throws IOException {
+        final GeocodedLocation loc = new GeocodedLocation();
+        loc.setOriginalAddress(address);
+        LocationType type = LocationType.UNKNOWN;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            final String name = reader.nextName();
+            if ("formatted_address".equals(name)) {
+                loc.setGeocodedAddress(reader.nextString());
+            } else if ("address_components".equals(name)) {
+                reader.beginArray();
+                while (reader.hasNext())
+                    this.readAddressComponent(reader, loc);
+                reader.endArray();
+            } else if ("geometry".equals(name)) {
+                this.readGeometry(reader, loc);
+            } else if ("types".equals(name)) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    final LocationType candidate = getLocationType(reader.nextString());
+                    if (type == LocationType.UNKNOWN)
+                        type = candidate;
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        loc.setType(type);
+        return loc;
+    }
+
+    private void readAddressComponent(JsonReader reader, GeocodedLocation loc) throws IOException {
+        String value = null;
+        final List<String> types = new ArrayList<String>(4);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            final String name = reader.nextName();
+            if ("short_name".equals(name)) {
+                value = reader.nextString();
+            } else if ("types".equals(name)) {
+                reader.beginArray();
+                while (reader.hasNext())
+                    types.add(reader.nextString());
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        for (String type : types) {
+            if ("street_number".equals(type))
+                loc.setStreetNumber(value);
             else if ("route".equals(type))
-                return LocationType.ROUTE;
-            else if ("intersection".equals(type))
-                return LocationType.INTERSECTION;
-            else if ("country".equals(type))
-                return LocationType.COUNTRY;
+                loc.setRoute(value);
+            else if ("locality".equals(type))
+                loc.setLocality(value);
             else if ("administrative_area_level_1".equals(type))
-                return LocationType.ADMIN_LEVEL_1;
+                loc.setAdministrativeAreaLevel1(value);
             else if ("administrative_area_level_2".equals(type))
-                return LocationType.ADMIN_LEVEL_2;
-            else if ("locality".equals(type))
-                return LocationType.LOCALITY;
-            else if ("neighborhood".equals(type))
-                return LocationType.NEIGHBORHOOD;
+                loc.setAdministrativeAreaLevel2(value);
+            else if ("country".equals(type))
+                loc.setCountry(value);
             else if ("postal_code".equals(type))
-                return LocationType.POSTAL_CODE;
-            else if ("point_of_interest".equals(type))
-                return LocationType.POI;
+                loc.setPostalCode(value);
         }
+    }
+
+    private void readGeometry(JsonReader reader, GeocodedLocation loc) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if ("location".equals(reader.nextName())) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    final String name = reader.nextName();
+                    if ("lat".equals(name))
+                        loc.setLat(reader.nextDouble());
+                    else if ("lng".equals(name))
+                        loc.setLon(reader.nextDouble());
+                    else
+                        reader.skipValue();
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private LocationType getLocationType(String type) {
+        if ("street_address".equals(type))
+            return LocationType.STREET_ADDRESS;
+        else if ("route".equals(type))
+            return LocationType.ROUTE;
+        else if ("intersection".equals(type))
+            return LocationType.INTERSECTION;
+        else if ("country".equals(type))
+            return LocationType.COUNTRY;
+        else if ("administrative_area_level_1".equals(type))
+            return LocationType.ADMIN_LEVEL_1;
+        else if ("administrative_area_level_2".equals(type))
+            return LocationType.ADMIN_LEVEL_2;
+        else if ("locality".equals(type))
+            return LocationType.LOCALITY;
+        else if ("neighborhood".equals(type))
+            return LocationType.NEIGHBORHOOD;
+        else if ("postal_code".equals(type))
+            return LocationType.POSTAL_CODE;
+        else if ("point_of_interest".equals(type))
+            return LocationType.POI;
         return LocationType.UNKNOWN;
     }
 
@@ -0,0 +1,379 @@
+/*
+ * Copyright (C) 2015 Elihu, LLC. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vaadin.addons.locationtextfield;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Minimal pull parser for JSON which reads tokens from a {@link java.io.Reader} on demand, so callers can map fields as
+ * they arrive and stop reading as soon as they have what they need. Strings are built in a single reused buffer and no
+ * document tree is created.
+ */
+final class JsonReader implements Closeable {
+
+    enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+    }
+
+    private static final int EMPTY_ARRAY = 1;
+    private static final int NONEMPTY_ARRAY = 2;
+    private static final int EMPTY_OBJECT = 3;
+    private static final int DANGLING_NAME = 4;
+    private static final int NONEMPTY_OBJECT = 5;
+    private static final int EMPTY_DOCUMENT = 6;
+    private static final int NONEMPTY_DOCUMENT = 7;
+
+    private final Reader in;
+    private final char[] buffer = new char[4096];
+    private int pos;
+    private int limit;
+
+    private int[] stack = new int[32];
+    private int depth;
+
+    private final StringBuilder builder = new StringBuilder();
+    private Token peeked;
+    private String literal;
+
+    JsonReader(Reader in) {
+        this.in = in;
+        this.stack[this.depth++] = EMPTY_DOCUMENT;
+    }
+
+    Token peek() throws IOException {
+        if (this.peeked != null)
+            return this.peeked;
+        int c;
+        switch (this.stack[this.depth - 1]) {
+        case EMPTY_ARRAY:
+            this.stack[this.depth - 1] = NONEMPTY_ARRAY;
+            c = this.nextNonWhitespace();
+            if (c == ']')
+                return this.peeked = Token.END_ARRAY;
+            this.pos--;
+            break;
+        case NONEMPTY_ARRAY:
+            c = this.nextNonWhitespace();
+            if (c == ']')
+                return this.peeked = Token.END_ARRAY;
+            if (c != ',')
+                throw this.syntaxError("Expected ',' or ']'");
+            break;
+        case EMPTY_OBJECT:
+        case NONEMPTY_OBJECT:
+            boolean empty = this.stack[this.depth - 1] == EMPTY_OBJECT;
+            this.stack[this.depth - 1] = DANGLING_NAME;
+            c = this.nextNonWhitespace();
+            if (c == '}')
+                return this.peeked = Token.END_OBJECT;
+            if (!empty) {
+                if (c != ',')
+                    throw this.syntaxError("Expected ',' or '}'");
+                c = this.nextNonWhitespace();
+            }
+            if (c != '"')
+                throw this.syntaxError("Expected name");
+            return this.peeked = Token.NAME;
+        case DANGLING_NAME:
+            this.stack[this.depth - 1] = NONEMPTY_OBJECT;
+            if (this.nextNonWhitespace() != ':')
+                throw this.syntaxError("Expected ':'");
+            break;
+        case EMPTY_DOCUMENT:
+            this.stack[this.depth - 1] = NONEMPTY_DOCUMENT;
+            break;
+        case NONEMPTY_DOCUMENT:
+            if (this.nextNonWhitespace() != -1)
+                throw this.syntaxError("Expected end of document");
+            return this.peeked = Token.END_DOCUMENT;
+        default:
+            throw new IllegalStateException("Reader is closed");
+        }
+
+        c = this.nextNonWhitespace();
+        switch (c) {
+        case '{':
+            return this.peeked = Token.BEGIN_OBJECT;
+        case '[':
+            return this.peeked = Token.BEGIN_ARRAY;
+        case '"':
+            return this.peeked = Token.STRING;
+        case -1:
+            throw this.syntaxError("Unexpected end of document");
+        default:
+            this.pos--;
+            this.literal = this.readLiteral();
+            if ("true".equals(this.literal) || "false".equals(this.literal))
+                return this.peeked = Token.BOOLEAN;
+            if ("null".equals(this.literal))
+                return this.peeked = Token.NULL;
+            if (this.literal.isEmpty())
+                throw this.syntaxError("Unexpected character '" + (char)c + "'");
+            return this.peeked = Token.NUMBER;
+        }
+    }
+
+    void beginObject() throws IOException {
+        this.expect(Token.BEGIN_OBJECT);
+        this.push(EMPTY_OBJECT);
+    }
+
+    void endObject() throws IOException {
+        this.expect(Token.END_OBJECT);
+        this.depth--;
+    }
+
+    void beginArray() throws IOException {
+        this.expect(Token.BEGIN_ARRAY);
+        this.push(EMPTY_ARRAY);
+    }
+
+    void endArray() throws IOException {
+        this.expect(Token.END_ARRAY);
+        this.depth--;
+    }
+
+    boolean hasNext() throws IOException {
+        final Token token = this.peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+    }
+
+    String nextName() throws IOException {
+        this.expect(Token.NAME);
+        return this.readString();
+    }
+
+    /**
+     * Reads a string value; numbers and booleans are returned as their literal text
+     */
+    String nextString() throws IOException {
+        final Token token = this.peek();
+        if (token == Token.STRING) {
+            this.peeked = null;
+            return this.readString();
+        }
+        if (token == Token.NUMBER || token == Token.BOOLEAN) {
+            this.peeked = null;
+            return this.literal;
+        }
+        throw this.syntaxError("Expected string but was " + token);
+    }
+
+    /**
+     * Reads a numeric value; strings holding a number are parsed
+     */
+    double nextDouble() throws IOException {
+        final Token token = this.peek();
+        final String value;
+        if (token == Token.NUMBER) {
+            value = this.literal;
+        } else if (token == Token.STRING) {
+            value = this.readString();
+        } else {
+            throw this.syntaxError("Expected number but was " + token);
+        }
+        this.peeked = null;
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw this.syntaxError("Malformed number " + value);
+        }
+    }
+
+    boolean nextBoolean() throws IOException {
+        this.expect(Token.BOOLEAN);
+        return "true".equals(this.literal);
+    }
+
+    void nextNull() throws IOException {
+        this.expect(Token.NULL);
+    }
+
+    /**
+     * Skips the next value, including any nested objects or arrays
+     */
+    void skipValue() throws IOException {
+        int count = 0;
+        do {
+            switch (this.peek()) {
+            case BEGIN_OBJECT:
+                this.beginObject();
+                count++;
+                break;
+            case BEGIN_ARRAY:
+                this.beginArray();
+                count++;
+                break;
+            case END_OBJECT:
+                this.endObject();
+                count--;
+                break;
+            case END_ARRAY:
+                this.endArray();
+                count--;
+                break;
+            case NAME:
+            case STRING:
+                this.peeked = null;
+                this.skipString();
+                break;
+            case END_DOCUMENT:
+                throw this.syntaxError("Unexpected end of document");
+            default:
+                this.peeked = null;
+                break;
+            }
+        } while (count != 0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.peeked = null;
+        this.stack[0] = 0;
+        this.depth = 1;
+        this.in.close();
+    }
+
+    private void expect(Token expected) throws IOException {
+        final Token token = this.peek();
+        if (token != expected)
+            throw this.syntaxError("Expected " + expected + " but was " + token);
+        this.peeked = null;
+    }
+
+    private void push(int context) {
+        if (this.depth == this.stack.length) {
+            int[] grown = new int[this.depth * 2];
+            System.arraycopy(this.stack, 0, grown, 0, this.depth);
+            this.stack = grown;
+        }
+        this.stack[this.depth++] = context;
+    }
+
+    private boolean fill() throws IOException {
+        this.limit = this.in.read(this.buffer, 0, this.buffer.length);
+        this.pos = 0;
+        if (this.limit <= 0) {
+            this.limit = 0;
+            return false;
+        }
+        return true;
+    }
+
+    private int nextChar() throws IOException {
+        if (this.pos == this.limit && !this.fill())
+            return -1;
+        return this.buffer[this.pos++];
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        while (true) {
+            if (this.pos == this.limit && !this.fill())
+                return -1;
+            char c = this.buffer[this.pos++];
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t')
+                return c;
+        }
+    }
+
+    private String readLiteral() throws IOException {
+        this.builder.setLength(0);
+        while (true) {
+            if (this.pos == this.limit && !this.fill())
+                break;
+            char c = this.buffer[this.pos];
+            if (c == ',' || c == '}' || c == ']' || c == ':' || c == ' ' || c == '\n' || c == '\r' || c == '\t')
+                break;
+            this.builder.append(c);
+            this.pos++;
+        }
+        return this.builder.toString();
+    }
+
+    private String readString() throws IOException {
+        this.builder.setLength(0);
+        while (true) {
+            int start = this.pos;
+            while (this.pos < this.limit) {
+                char c = this.buffer[this.pos++];
+                if (c == '"') {
+                    this.builder.append(this.buffer, start, this.pos - 1 - start);
+                    return this.builder.toString();
+                } else if (c == '\\') {
+                    this.builder.append(this.buffer, start, this.pos - 1 - start);
+                    this.builder.append(this.readEscape());
+                    start = this.pos;
+                }
+            }
+            this.builder.append(this.buffer, start, this.pos - start);
+            if (!this.fill())
+                throw this.syntaxError("Unterminated string");
+        }
+    }
+
+    private void skipString() throws IOException {
+        while (true) {
+            int c = this.nextChar();
+            if (c == '"')
+                return;
+            if (c == '\\')
+                this.readEscape();
+            else if (c == -1)
+                throw this.syntaxError("Unterminated string");
+        }
+    }
+
+    private char readEscape() throws IOException {
+        final int c = this.nextChar();
+        switch (c) {
+        case 'u':
+            int value = 0;
+            for (int i = 0; i < 4; i++) {
+                int digit = Character.digit(this.nextChar(), 16);
+                if (digit < 0)
+                    throw this.syntaxError("Malformed unicode escape");
+                value = (value << 4) | digit;
+            }
+            return (char)value;
+        case 'b':
+            return '\b';
+        case 'f':
+            return '\f';
+        case 'n':
+            return '\n';
+        case 'r':
+            return '\r';
+        case 't':
+            return '\t';
+        case '"':
+        case '\\':
+        case '/':
+            return (char)c;
+        default:
+            throw this.syntaxError("Invalid escape sequence");
+        }
+    }
+
+    private IOException syntaxError(String message) {
+        return new IOException("Malformed JSON: " + message);
+    }
+}
@@ -0,0 +1,546 @@
+/*
+ * Copyright (C) 2015 Elihu, LLC. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vaadin.addons.locationtextfield;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.Reader;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * {@link org.vaadin.addons.locationtextfield.LocationProvider} which answers queries in-process from an index over a local
+ * address dataset, e.g. an OpenAddresses CSV file, without any network access.
+ *
+ * Address components are stored once in a shared string table and referenced by id from parallel arrays. Tokens of the
+ * number, street, city, region and postal code are kept in a sorted token table with posting lists of address ids: every
+ * query token but the last must match a token exactly while the last one may be a prefix, so suggestions work while the
+ * user is still typing. Results are built as fully populated {@link GeocodedLocation}s on demand; as a
+ * {@link TwoPhaseLocationProvider} suggestions carry only the formatted address and the address id, and the location is
+ * built once the user selects it.
+ *
+ * Since a local dataset can match a huge number of addresses, a limit of 0 means {@link #DEFAULT_LIMIT} results.
+ *
+ * The index is not serialized with the geocoder, so sessions holding it stay small; a deserialized geocoder looks
+ * the index up by name among those loaded in the JVM. To deserialize sessions on another node, e.g. after failover,
+ * build the geocoder there under the same name with {@link Builder#withName(String)}.
+ */
+public class LocalAddressGeocoder implements TwoPhaseLocationProvider<GeocodedLocation> {
+
+    private static final long serialVersionUID = -7049178310623542957L;
+
+    public static final int DEFAULT_LIMIT = 25;
+
+    private static final int NUMBER = 0;
+    private static final int STREET = 1;
+    private static final int CITY = 2;
+    private static final int DISTRICT = 3;
+    private static final int REGION = 4;
+    private static final int POSTCODE = 5;
+    private static final int COUNTRY = 6;
+    private static final int FIELDS = 7;
+
+    private static final Map<String, WeakReference<Index>> INDEXES = new HashMap<String, WeakReference<Index>>();
+
+    private final String name;
+    private transient Index index;
+    private int limit;
+
+    private LocalAddressGeocoder(Builder builder) {
+        this.name = builder.name != null ? builder.name : UUID.randomUUID().toString();
+        this.index = new Index(builder);
+        synchronized (INDEXES) {
+            INDEXES.values().removeIf(reference -> reference.get() == null);
+            INDEXES.put(this.name, new WeakReference<Index>(this.index));
+        }
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * Loads an OpenAddresses-style CSV file. The header row must name the columns; LON, LAT and STREET are required while
+     * NUMBER, CITY, DISTRICT, REGION, POSTCODE and COUNTRY are optional. Column names are case insensitive.
+     * @param reader CSV data; not closed
+     * @param defaultCountry country code used for rows without a COUNTRY column, may be null
+     * @return geocoder over the addresses of the file
+     * @throws IOException if reading fails or the file lacks a required column
+     */
+    public static LocalAddressGeocoder fromCsv(Reader reader, String defaultCountry) throws IOException {
+        return fromCsv(reader, defaultCountry, null);
+    }
+
+    /**
+     * Loads an OpenAddresses-style CSV file as {@link #fromCsv(Reader, String)} does, naming the index
+     * @param reader CSV data; not closed
+     * @param defaultCountry country code used for rows without a COUNTRY column, may be null
+     * @param name name under which deserialized geocoders find the index, see {@link Builder#withName(String)}
+     * @return geocoder over the addresses of the file
+     * @throws IOException if reading fails or the file lacks a required column
+     */
+    public static LocalAddressGeocoder fromCsv(Reader reader, String defaultCountry, String name) throws IOException {
+        final BufferedReader in = reader instanceof BufferedReader ? (BufferedReader)reader : new BufferedReader(reader);
+        final String headerLine = in.readLine();
+        if (headerLine == null)
+            throw new IOException("CSV file is empty");
+        final List<String> header = parseCsvLine(headerLine);
+        final Map<String, Integer> columns = new HashMap<String, Integer>();
+        for (int i = 0; i < header.size(); i++)
+            columns.put(header.get(i).trim().toUpperCase(Locale.ROOT), i);
+        final int lon = requireColumn(columns, "LON");
+        final int lat = requireColumn(columns, "LAT");
+        final int street = requireColumn(columns, "STREET");
+        final int number = column(columns, "NUMBER");
+        final int city = column(columns, "CITY");
+        final int district = column(columns, "DISTRICT");
+        final int region = column(columns, "REGION");
+        final int postcode = column(columns, "POSTCODE");
+        final int country = column(columns, "COUNTRY");
+
+        final Builder builder = newBuilder().withName(name);
+        String line;
+        int lineNumber = 1;
+        while ((line = in.readLine()) != null) {
+            lineNumber++;
+            if (line.isEmpty())
+                continue;
+            final List<String> row = parseCsvLine(line);
+            try {
+                final String countryValue = value(row, country);
+                builder.addAddress(Double.parseDouble(row.get(lat)), Double.parseDouble(row.get(lon)), value(row, number),
+                  value(row, street), value(row, city), value(row, district), value(row, region), value(row, postcode),
+                  countryValue != null ? countryValue : defaultCountry);
+            } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                throw new IOException("Malformed CSV row at line " + lineNumber, e);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Collection<GeocodedLocation> geocode(String address) throws GeocodingException {
+        final Set<GeocodedLocation> locations = new LinkedHashSet<GeocodedLocation>();
+        final int[] ids = this.search(address, this.limit > 0 ? this.limit : DEFAULT_LIMIT);
+        for (int id : ids) {
+            GeocodedLocation location = this.createLocation(id, address);
+            location.setAmbiguous(ids.length > 1);
+            locations.add(location);
+        }
+        return locations;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Collection<LocationSuggestion> suggest(String address) throws GeocodingException {
+        final int[] ids = this.search(address, this.limit > 0 ? this.limit : DEFAULT_LIMIT);
+        final List<LocationSuggestion> suggestions = new ArrayList<LocationSuggestion>(ids.length);
+        for (int id : ids)
+            suggestions.add(new LocationSuggestion(Integer.toString(id), this.formatAddress(id), address));
+        return suggestions;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public GeocodedLocation resolve(LocationSuggestion suggestion) throws GeocodingException {
+        final int id;
+        try {
+            id = Integer.parseInt(suggestion.getId());
+        } catch (NumberFormatException e) {
+            throw new GeocodingException("Invalid suggestion id: " + suggestion.getId(), e);
+        }
+        if (id < 0 || id >= this.size())
+            return null;
+        return this.createLocation(id, suggestion.getOriginalAddress());
+    }
+
+    /**
+     * Finds the ids of the addresses matching the query
+     * @param address query
+     * @param max max number of ids to return
+     * @return ids in index order
+     */
+    int[] search(String address, int max) {
+        final List<String> queryTokens = tokenize(QueryNormalizer.normalize(address));
+        if (queryTokens.isEmpty())
+            return new int[0];
+        final String prefix = queryTokens.remove(queryTokens.size() - 1);
+
+        int[] candidates = null;
+        for (String token : queryTokens) {
+            int i = Arrays.binarySearch(this.index.tokens, token);
+            if (i < 0)
+                return new int[0];
+            int[] list = Arrays.copyOfRange(this.index.postings, this.index.postingOffsets[i], this.index.postingOffsets[i + 1]);
+            candidates = candidates == null ? list : intersect(candidates, list);
+            if (candidates.length == 0)
+                return candidates;
+        }
+
+        final int from = lowerBound(prefix);
+        if (from == this.index.tokens.length || !this.index.tokens[from].startsWith(prefix))
+            return new int[0];
+
+        if (candidates != null) {
+            // verify the prefix against the few remaining candidates rather than merging every posting list in range
+            int[] matches = new int[Math.min(candidates.length, max)];
+            int count = 0;
+            for (int i = 0; i < candidates.length && count < max; i++) {
+                if (this.hasTokenWithPrefix(candidates[i], prefix))
+                    matches[count++] = candidates[i];
+            }
+            return Arrays.copyOf(matches, count);
+        }
+
+        final Set<Integer> matches = new LinkedHashSet<Integer>();
+        for (int i = from; i < this.index.tokens.length && this.index.tokens[i].startsWith(prefix) && matches.size() < max; i++) {
+            for (int p = this.index.postingOffsets[i]; p < this.index.postingOffsets[i + 1] && matches.size() < max; p++)
+                matches.add(this.index.postings[p]);
+        }
+        final int[] result = new int[matches.size()];
+        int count = 0;
+        for (Integer id : matches)
+            result[count++] = id;
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * Builds the location for the address with the given id
+     * @param id address id
+     * @param originalAddress query which matched the address
+     * @return fully populated location
+     */
+    GeocodedLocation createLocation(int id, String originalAddress) {
+        final GeocodedLocation location = new GeocodedLocation();
+        location.setOriginalAddress(originalAddress);
+        location.setStreetNumber(this.index.component(id, NUMBER));
+        location.setRoute(this.index.component(id, STREET));
+        location.setLocality(this.index.component(id, CITY));
+        location.setAdministrativeAreaLevel2(this.index.component(id, DISTRICT));
+        location.setAdministrativeAreaLevel1(this.index.component(id, REGION));
+        location.setPostalCode(this.index.component(id, POSTCODE));
+        location.setCountry(this.index.component(id, COUNTRY));
+        location.setLat(this.index.lats[id]);
+        location.setLon(this.index.lons[id]);
+        location.setType(location.getStreetNumber() != null ? LocationType.STREET_ADDRESS : LocationType.ROUTE);
+        location.setGeocodedAddress(this.formatAddress(id));
+        return location;
+    }
+
+    /**
+     * Formats the address with the given id as "number street, city, region postcode, country"
+     */
+    String formatAddress(int id) {
+        final StringBuilder builder = new StringBuilder();
+        append(builder, this.index.component(id, NUMBER), "");
+        append(builder, this.index.component(id, STREET), " ");
+        append(builder, this.index.component(id, CITY), ", ");
+        append(builder, this.index.component(id, REGION), ", ");
+        append(builder, this.index.component(id, POSTCODE), this.index.component(id, REGION) != null ? " " : ", ");
+        append(builder, this.index.component(id, COUNTRY), ", ");
+        return builder.toString();
+    }
+
+    /**
+     * Number of addresses in the index
+     */
+    public int size() {
+        return this.index.lats.length;
+    }
+
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * Name under which deserialized geocoders find the index
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    private boolean hasTokenWithPrefix(int id, String prefix) {
+        for (String token : this.index.tokensOf(id)) {
+            if (token.startsWith(prefix))
+                return true;
+        }
+        return false;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        synchronized (INDEXES) {
+            final WeakReference<Index> reference = INDEXES.get(this.name);
+            this.index = reference != null ? reference.get() : null;
+        }
+        if (this.index == null)
+            throw new InvalidObjectException("No local address index named " + this.name + " is loaded");
+    }
+
+    private int lowerBound(String prefix) {
+        int low = 0;
+        int high = this.index.tokens.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (this.index.tokens[mid].compareTo(prefix) < 0)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        final int[] result = new int[Math.min(a.length, b.length)];
+        int i = 0;
+        int j = 0;
+        int count = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[count++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private static List<String> tokenize(String text) {
+        final List<String> result = new ArrayList<String>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean letterOrDigit = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (letterOrDigit && start < 0) {
+                start = i;
+            } else if (!letterOrDigit && start >= 0) {
+                result.add(text.substring(start, i));
+                start = -1;
+            }
+        }
+        return result;
+    }
+
+    private static void append(StringBuilder builder, String value, String separator) {
+        if (value == null)
+            return;
+        if (builder.length() > 0)
+            builder.append(separator);
+        builder.append(value);
+    }
+
+    private static int requireColumn(Map<String, Integer> columns, String name) throws IOException {
+        final Integer index = columns.get(name);
+        if (index == null)
+            throw new IOException("CSV file lacks required column " + name);
+        return index;
+    }
+
+    private static int column(Map<String, Integer> columns, String name) {
+        final Integer index = columns.get(name);
+        return index == null ? -1 : index;
+    }
+
+    private static String value(List<String> row, int column) {
+        if (column < 0 || column >= row.size())
+            return null;
+        final String value = row.get(column).trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    static List<String> parseCsvLine(String line) {
+        final List<String> values = new ArrayList<String>();
+        final StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"') {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        value.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    value.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(value.toString());
+                value.setLength(0);
+            } else {
+                value.append(c);
+            }
+        }
+        values.add(value.toString());
+        return values;
+    }
+
+    /**
+     * The address data and token index, shared by all geocoders built from or deserialized against it
+     */
+    private static final class Index {
+
+        private final String[] strings;
+        private final int[] components;     // FIELDS string ids per address, -1 if absent
+        private final double[] lats;
+        private final double[] lons;
+        private final String[] tokens;      // sorted
+        private final int[] postingOffsets;
+        private final int[] postings;
+
+        private Index(Builder builder) {
+            final int size = builder.size;
+            this.strings = builder.strings.toArray(new String[builder.strings.size()]);
+            this.components = Arrays.copyOf(builder.components, size * FIELDS);
+            this.lats = Arrays.copyOf(builder.lats, size);
+            this.lons = Arrays.copyOf(builder.lons, size);
+
+            final Map<String, int[]> index = new HashMap<String, int[]>();
+            for (int id = 0; id < size; id++) {
+                for (String token : this.tokensOf(id)) {
+                    int[] list = index.get(token);
+                    if (list == null) {
+                        list = new int[] {0, 0, 0, 0, 0};   // first slot holds the count
+                        index.put(token, list);
+                    } else if (list[0] + 1 == list.length) {
+                        list = Arrays.copyOf(list, list.length * 2);
+                        index.put(token, list);
+                    }
+                    list[++list[0]] = id;
+                }
+            }
+            this.tokens = index.keySet().toArray(new String[index.size()]);
+            Arrays.sort(this.tokens);
+            this.postingOffsets = new int[this.tokens.length + 1];
+            int total = 0;
+            for (int i = 0; i < this.tokens.length; i++) {
+                this.postingOffsets[i] = total;
+                total += index.get(this.tokens[i])[0];
+            }
+            this.postingOffsets[this.tokens.length] = total;
+            this.postings = new int[total];
+            for (int i = 0; i < this.tokens.length; i++) {
+                int[] list = index.get(this.tokens[i]);
+                System.arraycopy(list, 1, this.postings, this.postingOffsets[i], list[0]);
+            }
+        }
+
+        private String component(int id, int field) {
+            final int stringId = this.components[id * FIELDS + field];
+            return stringId < 0 ? null : this.strings[stringId];
+        }
+
+        /**
+         * Distinct tokens of the indexed fields of an address, so an address appears once in each posting list even
+         * when a token repeats across fields, e.g. "Springfield Ave" in Springfield
+         */
+        private Set<String> tokensOf(int id) {
+            final Set<String> result = new LinkedHashSet<String>();
+            for (int field : new int[] {NUMBER, STREET, CITY, REGION, POSTCODE}) {
+                String value = this.component(id, field);
+                if (value != null)
+                    result.addAll(tokenize(value.toLowerCase(Locale.ROOT)));
+            }
+            return result;
+        }
+    }
+
+    public static final class Builder {
+
+        private String name;
+        private final List<String> strings = new ArrayList<String>();
+        private final Map<String, Integer> stringIds = new HashMap<String, Integer>();
+        private int[] components = new int[1024 * FIELDS];
+        private double[] lats = new double[1024];
+        private double[] lons = new double[1024];
+        private int size;
+
+        private Builder() {
+        }
+
+        /**
+         * Names the index so geocoders deserialized in another JVM find the one built there under the same name;
+         * a random name is used otherwise. Building another index under the name replaces it for later deserialization.
+         */
+        public Builder withName(String name) {
+            this.name = name;
+            return this;
+        }
+
+        public Builder addAddress(double lat, double lon, String number, String street, String city, String district,
+          String region, String postcode, String country) {
+            if (this.size == this.lats.length) {
+                this.lats = Arrays.copyOf(this.lats, this.size * 2);
+                this.lons = Arrays.copyOf(this.lons, this.size * 2);
+                this.components = Arrays.copyOf(this.components, this.size * 2 * FIELDS);
+            }
+            final int base = this.size * FIELDS;
+            this.components[base + NUMBER] = this.intern(number);
+            this.components[base + STREET] = this.intern(street);
+            this.components[base + CITY] = this.intern(city);
+            this.components[base + DISTRICT] = this.intern(district);
+            this.components[base + REGION] = this.intern(region);
+            this.components[base + POSTCODE] = this.intern(postcode);
+            this.components[base + COUNTRY] = this.intern(country);
+            this.lats[this.size] = lat;
+            this.lons[this.size] = lon;
+            this.size++;
+            return this;
+        }
+
+        private int intern(String value) {
+            if (value == null || value.isEmpty())
+                return -1;
+            Integer id = this.stringIds.get(value);
+            if (id == null) {
+                id = this.strings.size();
+                this.strings.add(value);
+                this.stringIds.put(value, id);
+            }
+            return id;
+        }
+
+        public LocalAddressGeocoder build() {
+            return new LocalAddressGeocoder(this);
+        }
+    }
+}
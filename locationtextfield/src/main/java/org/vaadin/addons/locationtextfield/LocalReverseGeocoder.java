@@ -0,0 +1,305 @@
+/*
+ * Copyright (C) 2015 Elihu, LLC. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vaadin.addons.locationtextfield;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * {@link org.vaadin.addons.locationtextfield.ReverseLocationProvider} which answers reverse lookups in-process from a
+ * spatial index over known locations.
+ *
+ * Locations are bucketed into a grid of fixed size cells (similar to geohash prefixes) and a query scans rings of cells
+ * around the query point, nearest first, until no unvisited cell can hold a closer location or the max distance is
+ * exceeded. If nothing is found locally and a fallback provider is configured, its results are returned and added to the
+ * index so repeat lookups near the same point are answered locally.
+ */
+public class LocalReverseGeocoder<T extends GeocodedLocation> implements ReverseLocationProvider<T> {
+
+    private static final long serialVersionUID = 2985146079265540617L;
+
+    public static final double DEFAULT_CELL_SIZE = 0.005;           // degrees, about 550 meters of latitude
+    public static final double DEFAULT_MAX_DISTANCE = 1000;         // meters
+    public static final int DEFAULT_LIMIT = 1;
+
+    private static final double METERS_PER_DEGREE = 6371008.8 * Math.PI / 180;
+
+    private final double cellSize;
+    private final double maxDistance;
+    private final int lonCells;
+    private final ReverseLocationProvider<T> fallback;
+    private final Map<Long, Cell<T>> cells = new HashMap<Long, Cell<T>>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private int size;
+
+    public LocalReverseGeocoder() {
+        this(DEFAULT_CELL_SIZE, DEFAULT_MAX_DISTANCE, null);
+    }
+
+    private LocalReverseGeocoder(Builder<T> builder) {
+        this(builder.cellSize, builder.maxDistance, builder.fallback);
+    }
+
+    private LocalReverseGeocoder(double cellSize, double maxDistance, ReverseLocationProvider<T> fallback) {
+        this.cellSize = cellSize;
+        this.maxDistance = maxDistance;
+        this.lonCells = (int)Math.ceil(360 / cellSize);
+        this.fallback = fallback;
+    }
+
+    public static <T extends GeocodedLocation> Builder<T> newBuilder() {
+        return new Builder<>();
+    }
+
+    /**
+     * Adds a location to the index; a location with the same coordinates and geocoded address is only indexed once
+     * @param location location to add
+     */
+    public void add(T location) {
+        final long key = this.key(this.latIndex(location.getLat()), this.lonIndex(location.getLon()));
+        this.lock.writeLock().lock();
+        try {
+            Cell<T> cell = this.cells.get(key);
+            if (cell == null) {
+                cell = new Cell<T>();
+                this.cells.put(key, cell);
+            }
+            if (cell.add(location))
+                this.size++;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    public void addAll(Collection<? extends T> locations) {
+        for (T location : locations)
+            this.add(location);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Collection<T> reverseGeocode(double lat, double lon, int limit) throws GeocodingException {
+        final List<T> locations = this.nearest(lat, lon, limit > 0 ? limit : DEFAULT_LIMIT);
+        if (!locations.isEmpty() || this.fallback == null)
+            return locations;
+        final Collection<T> remote = this.fallback.reverseGeocode(lat, lon, limit);
+        this.addAll(remote);
+        return remote;
+    }
+
+    /**
+     * Finds the indexed locations nearest to the given coordinates within the max distance
+     * @param lat latitude in degrees
+     * @param lon longitude in degrees
+     * @param limit max number of results; must be greater than zero
+     * @return locations, nearest first
+     */
+    public List<T> nearest(double lat, double lon, int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("limit must be greater than zero");
+        }
+        // max-heap on distance so the farthest of the current best is dropped first
+        final PriorityQueue<Candidate<T>> best = new PriorityQueue<Candidate<T>>(limit + 1,
+          (c1, c2) -> Double.compare(c2.distance, c1.distance));
+        final int latIndex = this.latIndex(lat);
+        final int lonIndex = this.lonIndex(lon);
+        final double maxDegrees = this.maxDistance / METERS_PER_DEGREE;
+
+        this.lock.readLock().lock();
+        try {
+            if (this.size == 0)
+                return Collections.emptyList();
+            for (int ring = 0; ; ring++) {
+                // nothing in this ring or beyond can be closer than the inner edge of the ring
+                final double poleward = Math.min(89.9, Math.abs(lat) + (ring + 1) * this.cellSize);
+                final double bound = Math.max(0, ring - 1) * this.cellSize * Math.cos(Math.toRadians(poleward));
+                if (bound > maxDegrees || ring > this.lonCells / 2)
+                    break;
+                if (best.size() == limit && bound * METERS_PER_DEGREE > best.peek().distance)
+                    break;
+                for (int dLat = -ring; dLat <= ring; dLat++) {
+                    final boolean edge = dLat == -ring || dLat == ring;
+                    for (int dLon = -ring; dLon <= ring; dLon += edge ? 1 : 2 * ring) {
+                        final Cell<T> cell = this.cells.get(this.key(latIndex + dLat, lonIndex + dLon));
+                        if (cell != null)
+                            cell.collect(lat, lon, this.maxDistance, limit, best);
+                        if (ring == 0)
+                            break;
+                    }
+                }
+            }
+        } finally {
+            this.lock.readLock().unlock();
+        }
+
+        final T[] sorted = newArray(best.size());
+        for (int i = sorted.length - 1; i >= 0; i--)
+            sorted[i] = best.poll().location;
+        return Arrays.asList(sorted);
+    }
+
+    /**
+     * Number of indexed locations
+     */
+    public int size() {
+        this.lock.readLock().lock();
+        try {
+            return this.size;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    public ReverseLocationProvider<T> getFallback() {
+        return this.fallback;
+    }
+
+    /**
+     * Approximate distance in meters between two points using an equirectangular projection, which is accurate enough
+     * for the short distances this index deals with
+     */
+    static double distance(double lat1, double lon1, double lat2, double lon2) {
+        double dLon = Math.abs(lon1 - lon2);
+        if (dLon > 180)
+            dLon = 360 - dLon;
+        final double x = Math.toRadians(dLon) * Math.cos(Math.toRadians((lat1 + lat2) / 2));
+        final double y = Math.toRadians(lat1 - lat2);
+        return Math.sqrt(x * x + y * y) * 6371008.8;
+    }
+
+    private int latIndex(double lat) {
+        return (int)Math.floor((lat + 90) / this.cellSize);
+    }
+
+    private int lonIndex(double lon) {
+        return (int)Math.floor((lon + 180) / this.cellSize);
+    }
+
+    private long key(int latIndex, int lonIndex) {
+        return ((long)latIndex << 32) | (Math.floorMod(lonIndex, this.lonCells) & 0xffffffffL);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T[] newArray(int length) {
+        return (T[])new GeocodedLocation[length];
+    }
+
+    private static final class Candidate<T> {
+
+        private final T location;
+        private final double distance;
+
+        private Candidate(T location, double distance) {
+            this.location = location;
+            this.distance = distance;
+        }
+    }
+
+    /**
+     * Locations of a grid cell; coordinates are kept in a flat array so scanning a cell does not touch the locations
+     */
+    private static final class Cell<T extends GeocodedLocation> implements java.io.Serializable {
+
+        private static final long serialVersionUID = -3378224505718203146L;
+
+        private double[] coordinates = new double[8];
+        private final List<T> locations = new ArrayList<T>(4);
+
+        private boolean add(T location) {
+            final int count = this.locations.size();
+            for (int i = 0; i < count; i++) {
+                if (this.coordinates[2 * i] == location.getLat() && this.coordinates[2 * i + 1] == location.getLon()
+                  && Objects.equals(this.locations.get(i).getGeocodedAddress(), location.getGeocodedAddress()))
+                    return false;
+            }
+            if (2 * count == this.coordinates.length)
+                this.coordinates = Arrays.copyOf(this.coordinates, this.coordinates.length * 2);
+            this.coordinates[2 * count] = location.getLat();
+            this.coordinates[2 * count + 1] = location.getLon();
+            this.locations.add(location);
+            return true;
+        }
+
+        private void collect(double lat, double lon, double maxDistance, int limit, PriorityQueue<Candidate<T>> best) {
+            final int count = this.locations.size();
+            for (int i = 0; i < count; i++) {
+                final double distance = distance(lat, lon, this.coordinates[2 * i], this.coordinates[2 * i + 1]);
+                if (distance > maxDistance || (best.size() == limit && distance >= best.peek().distance))
+                    continue;
+                best.add(new Candidate<T>(this.locations.get(i), distance));
+                if (best.size() > limit)
+                    best.poll();
+            }
+        }
+    }
+
+    public static final class Builder<T extends GeocodedLocation> {
+
+        private double cellSize = DEFAULT_CELL_SIZE;
+        private double maxDistance = DEFAULT_MAX_DISTANCE;
+        private ReverseLocationProvider<T> fallback;
+
+        private Builder() {
+        }
+
+        /**
+         * Size of the grid cells in degrees; smaller cells suit denser data
+         */
+        public Builder<T> withCellSize(double cellSize) {
+            if (cellSize <= 0 || cellSize > 90) {
+                throw new IllegalArgumentException("cellSize must be greater than zero and at most 90");
+            }
+            this.cellSize = cellSize;
+            return this;
+        }
+
+        /**
+         * Max distance in meters between the query point and a result
+         */
+        public Builder<T> withMaxDistance(double maxDistance) {
+            if (maxDistance <= 0) {
+                throw new IllegalArgumentException("maxDistance must be greater than zero");
+            }
+            this.maxDistance = maxDistance;
+            return this;
+        }
+
+        /**
+         * Provider queried when no indexed location is within the max distance; its results are added to the index
+         */
+        public Builder<T> withFallback(ReverseLocationProvider<T> fallback) {
+            this.fallback = fallback;
+            return this;
+        }
+
+        public LocalReverseGeocoder<T> build() {
+            return new LocalReverseGeocoder<>(this);
+        }
+    }
+}
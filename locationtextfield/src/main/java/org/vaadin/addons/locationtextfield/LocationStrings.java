@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2015 Elihu, LLC. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vaadin.addons.locationtextfield;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded dictionary canonicalizing the address components which repeat across results and sessions, i.e. country, state,
+ * county and city names, so every {@link GeocodedLocation} holding one refers to the same string instance. Long values are
+ * never canonicalized.
+ *
+ * The dictionary is a direct-mapped table: each value has a single slot chosen by its hash and a new value displaces
+ * whatever occupied the slot. The table therefore never fills up, one-off values age out as soon as another value lands in
+ * their slot and values which keep repeating win their slot back, all without locking.
+ */
+final class LocationStrings {
+
+    static final int MAX_ENTRIES = 8192;
+    static final int MAX_LENGTH = 64;
+
+    private static final AtomicReferenceArray<String> STRINGS = new AtomicReferenceArray<String>(MAX_ENTRIES);
+    private static volatile boolean enabled = true;
+
+    private LocationStrings() {
+        // nuthin'
+    }
+
+    /**
+     * Returns the canonical instance of the given value
+     * @param value string to canonicalize, may be null
+     * @return an equal string, shared with other callers if possible
+     */
+    static String canonicalize(String value) {
+        if (value == null || !enabled || value.length() > MAX_LENGTH)
+            return value;
+        final int hash = value.hashCode();
+        final int slot = (hash ^ (hash >>> 16)) & (MAX_ENTRIES - 1);
+        final String existing = STRINGS.get(slot);
+        if (value.equals(existing))
+            return existing;
+        STRINGS.lazySet(slot, value);
+        return value;
+    }
+
+    /**
+     * Number of occupied slots
+     */
+    static int size() {
+        int size = 0;
+        for (int i = 0; i < MAX_ENTRIES; i++) {
+            if (STRINGS.get(i) != null)
+                size++;
+        }
+        return size;
+    }
+
+    /**
+     * Turns canonicalization on or off, e.g. to compare footprints; turning it off empties the dictionary
+     */
+    static void setEnabled(boolean enabled) {
+        LocationStrings.enabled = enabled;
+        if (!enabled) {
+            for (int i = 0; i < MAX_ENTRIES; i++)
+                STRINGS.set(i, null);
+        }
+    }
+}
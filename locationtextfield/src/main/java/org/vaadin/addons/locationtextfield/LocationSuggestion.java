@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2015 Elihu, LLC. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vaadin.addons.locationtextfield;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Lightweight suggestion returned by the first phase of a {@link TwoPhaseLocationProvider}: only what is shown to the user
+ * and an id the provider can later resolve into a full {@link GeocodedLocation}
+ */
+public class LocationSuggestion implements Serializable {
+
+    private static final long serialVersionUID = 4871202531950761862L;
+
+    private final String id;
+    private final String displayString;
+    private final String originalAddress;
+
+    /**
+     * @param id opaque id understood by the provider which created the suggestion
+     * @param displayString how the suggestion is shown to the user
+     * @param originalAddress query the suggestion answers
+     */
+    public LocationSuggestion(String id, String displayString, String originalAddress) {
+        if (id == null) {
+            throw new IllegalArgumentException("id cannot be null");
+        }
+        this.id = id;
+        this.displayString = displayString;
+        this.originalAddress = originalAddress;
+    }
+
+    public String getId() {
+        return this.id;
+    }
+
+    public String getDisplayString() {
+        return this.displayString;
+    }
+
+    public String getOriginalAddress() {
+        return this.originalAddress;
+    }
+
+    /**
+     * Copy of this suggestion whose id also records which of several providers created it, for decorators combining
+     * providers; see {@link #getSource()}
+     */
+    LocationSuggestion withSource(int source) {
+        return new LocationSuggestion(source + ":" + this.id, this.displayString, this.originalAddress);
+    }
+
+    /**
+     * Provider recorded by {@link #withSource(int)}, or -1 if none was recorded
+     */
+    int getSource() {
+        final int colon = this.id.indexOf(':');
+        if (colon < 1)
+            return -1;
+        try {
+            return Integer.parseInt(this.id.substring(0, colon));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * The suggestion as created by its provider, without the source recorded by {@link #withSource(int)}
+     */
+    LocationSuggestion withoutSource() {
+        return new LocationSuggestion(this.id.substring(this.id.indexOf(':') + 1), this.displayString,
+          this.originalAddress);
+    }
+
+    /**
+     * Records the given source on each suggestion, see {@link #withSource(int)}
+     */
+    static List<LocationSuggestion> withSource(int source, Collection<LocationSuggestion> suggestions) {
+        if (suggestions == null)
+            return null;
+        final List<LocationSuggestion> result = new ArrayList<LocationSuggestion>(suggestions.size());
+        for (LocationSuggestion suggestion : suggestions)
+            result.add(suggestion.withSource(source));
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return this.displayString;
+    }
+}
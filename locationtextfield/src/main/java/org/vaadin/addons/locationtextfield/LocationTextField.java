@@ -22,16 +22,24 @@ package org.vaadin.addons.locationtextfield;
 
 import com.vaadin.ui.AbstractField;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
 import org.vaadin.addons.locationtextfield.client.GeocodedLocationSuggestion;
+import org.vaadin.addons.locationtextfield.client.LocationTextFieldClientRpc;
 import org.vaadin.addons.locationtextfield.client.LocationTextFieldServerRpc;
 import org.vaadin.addons.locationtextfield.client.LocationTextFieldState;
 
@@ -41,8 +49,21 @@ public class LocationTextField<E extends GeocodedLocation> extends AbstractField
 
     private E property;
     private GeocoderController<E> geocoderController;
-    private final Map<Integer, E> items = new HashMap<Integer, E>();
+    private transient Map<Integer, Item<E>> items = new LinkedHashMap<Integer, Item<E>>();
+    private transient int batch;
+    private transient List<GeocodedLocationSuggestion> suggestions = Collections.emptyList();
+    private transient String suggestionsQuery;
+    private transient boolean suggestionsChanged;
+    private transient Map<String, Integer> clientSuggestionIds = Collections.emptyMap();
+    private transient String pendingSelection;
+    private transient long pendingSelectionGeneration;
+    private int nextSuggestionId;
     private final Set<ValueChangeListener<E>> locationValueChangeListeners = new HashSet<>();
+    private final AtomicLong queryGeneration = new AtomicLong();
+    private boolean speculativeQuery;
+    private GeocodingMetrics metrics = GeocodingMetrics.NONE;
+    private transient long lastRpcNanos = -1;     // System.nanoTime() of this JVM
+    private int queriesGated;
 
     public LocationTextField(LocationProvider<E> locationProvider) {
         this(locationProvider, null, null);
@@ -66,20 +87,42 @@ public class LocationTextField<E extends GeocodedLocation> extends AbstractField
         final LocationTextFieldServerRpc rpc = new LocationTextFieldServerRpc() {
             @Override
             public void geocode(String query) {
-                LocationTextField.this.geocode(query);
+                final long now = System.nanoTime();
+                final long lastRpc = LocationTextField.this.lastRpcNanos;
+                LocationTextField.this.lastRpcNanos = now;
+                LocationTextField.this.metrics.rpcReceived(LocationTextField.this, lastRpc < 0 ? -1 : now - lastRpc);
+                LocationTextField.this.speculativeQuery = true;
+                try {
+                    LocationTextField.this.geocode(query);
+                } finally {
+                    LocationTextField.this.speculativeQuery = false;
+                }
             }
 
             @Override
             public void locationSelected(GeocodedLocationSuggestion suggestion) {
-                E location = LocationTextField.this.items.get(suggestion.getId());
+                Item<E> item = LocationTextField.this.items.get(suggestion.getId());
+                LocationTextField.this.metrics.selectionMade(item != null);
                 LocationTextField.this.setText(suggestion.getDisplayString());
-                LocationTextField.this.fireLocationChanged(location);
+                if (item == null) {
+                    LocationTextField.this.selectAfterGeocoding(suggestion.getDisplayString());
+                    return;
+                }
+                LocationTextField.this.select(item);
             }
 
             @Override
             public void inputCleared() {
                 reset();
             }
+
+            @Override
+            public void queriesGated(int total) {
+                final int count = total - LocationTextField.this.queriesGated;
+                LocationTextField.this.queriesGated = total;
+                if (count > 0)
+                    LocationTextField.this.metrics.clientQueriesGated(LocationTextField.this, count);
+            }
         };
         this.registerRpc(rpc, LocationTextFieldServerRpc.class);
     }
@@ -89,6 +132,12 @@ public class LocationTextField<E extends GeocodedLocation> extends AbstractField
         if (builder.geocoderController != null) {
             setGeocoderController(builder.geocoderController);
         }
+        if (builder.geocodingMetrics != null) {
+            setGeocodingMetrics(builder.geocodingMetrics);
+            if (this.geocoderController instanceof AbstractGeocoderController) {
+                ((AbstractGeocoderController<E>)this.geocoderController).setGeocodingMetrics(builder.geocodingMetrics);
+            }
+        }
         if (builder.text != null) {
             setText(builder.text);
         }
@@ -98,14 +147,17 @@ public class LocationTextField<E extends GeocodedLocation> extends AbstractField
         if (builder.height != null) {
             this.setHeight(builder.height);
         }
-        if (builder.suggestions != null) {
-            for (E suggestion : builder.suggestions) {
-                this.addSuggestion(suggestion, suggestion.getDisplayString());
-            }
+        if (builder.suggestions != null && !builder.suggestions.isEmpty()) {
+            this.setSuggestions(builder.suggestions);
         }
         if (builder.delayMillis > 0) {
             setDelay(builder.delayMillis);
         }
+        if (builder.adaptiveDelayEnabled) {
+            setAdaptiveDelayEnabled(true);
+            setMinDelay(builder.minDelayMillis);
+            setMaxDelay(builder.maxDelayMillis);
+        }
         if (builder.minimumQueryCharacters > 0) {
             setMinimumQueryCharacters(builder.minimumQueryCharacters);
         }
@@ -129,6 +181,17 @@ public class LocationTextField<E extends GeocodedLocation> extends AbstractField
         this.geocoderController = geocoderController;
     }
 
+    /**
+     * Metrics notified of queries received from the client and selections made; default is {@link GeocodingMetrics#NONE}
+     * @return metrics of this field
+     */
+    public GeocodingMetrics getGeocodingMetrics() {
+        return this.metrics;
+    }
+    public void setGeocodingMetrics(GeocodingMetrics metrics) {
+        this.metrics = metrics != null ? metrics : GeocodingMetrics.NONE;
+    }
+
     private void fireLocationChanged(E suggestion) {
         if (suggestion == null) {
             return;
@@ -153,6 +216,19 @@ public class LocationTextField<E extends GeocodedLocation> extends AbstractField
         this.afterLocationChanged(suggestion);
     }
 
+    /**
+     * Selects the suggestion with the given title once the controller has geocoded it again. Suggested locations are not
+     * serialized with the field, so a suggestion selected after the session has been replicated needs to be looked up again.
+     * The selection only applies to the suggestions of that query; any later query or reset drops it.
+     * @param title title of the selected suggestion
+     */
+    private void selectAfterGeocoding(String title) {
+        this.pendingSelection = title;
+        this.pendingSelectionGeneration = this.queryGeneration.incrementAndGet();
+        this.clearChoices();
+        this.geocoderController.geocode(this, title);
+    }
+
     /**
      * Hook method for subclasses to implement. Called after location has been changed
      * @param suggestion the changed location
@@ -209,6 +285,8 @@ public class LocationTextField<E extends GeocodedLocation> extends AbstractField
      * Removes all options and resets text field value to an empty string
      */
     public void reset() {
+        this.queryGeneration.incrementAndGet();
+        this.pendingSelection = null;
         this.clearChoices();
         this.getState().text = "";
         this.property = null;
@@ -216,11 +294,83 @@ public class LocationTextField<E extends GeocodedLocation> extends AbstractField
     }
 
     void clearChoices() {
-        getState().suggestions = Collections.emptyList();
-        this.items.clear();
+        this.suggestions = Collections.emptyList();
+        this.suggestionsQuery = null;
+        this.suggestionsChanged = true;
         markAsDirty();
     }
 
+    /**
+     * Starts a new batch of suggestions and forgets the locations of batches the client can no longer have cached. Ids are
+     * never given to another title, so a suggestion selected from an evicted batch is geocoded again instead of resolving to
+     * another location.
+     */
+    private void startBatch() {
+        this.batch++;
+        final int oldest = this.batch - this.getClientCacheSize();
+        for (Iterator<Item<E>> it = this.items.values().iterator(); it.hasNext() && it.next().batch < oldest; )
+            it.remove();
+    }
+
+    /**
+     * Binds a location, or a lazy suggestion to be resolved into one, to a suggestion of the current batch. A title the
+     * client is showing keeps its id, so that it is not sent again; items are kept in the order of their last use so evicted
+     * batches can be dropped from the head.
+     */
+    private GeocodedLocationSuggestion createSuggestion(E location, LocationSuggestion lazy, String title,
+      Set<Integer> usedIds) {
+        Integer id = this.clientSuggestionIds.get(title);
+        if (id == null || !usedIds.add(id)) {
+            id = this.nextSuggestionId++;
+            usedIds.add(id);
+        }
+        this.items.remove(id);
+        this.items.put(id, new Item<E>(location, lazy, this.batch));
+        final GeocodedLocationSuggestion suggestion = new GeocodedLocationSuggestion();
+        suggestion.setId(id);
+        suggestion.setDisplayString(title);
+        return suggestion;
+    }
+
+    /**
+     * Sends the suggestions changed during this round trip to the client in a single call. Only ids are sent for suggestions
+     * the client is already showing; suggestions new to it are sent with their titles.
+     */
+    @Override
+    public void beforeClientResponse(boolean initial) {
+        super.beforeClientResponse(initial);
+        if (initial)
+            this.clientSuggestionIds = Collections.emptyMap();
+        else if (!this.suggestionsChanged)
+            return;
+        this.suggestionsChanged = false;
+        if (initial && this.suggestions.isEmpty())
+            return;
+
+        final int size = this.suggestions.size();
+        final int[] ids = new int[size];
+        final List<GeocodedLocationSuggestion> added = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            final GeocodedLocationSuggestion suggestion = this.suggestions.get(i);
+            ids[i] = suggestion.getId();
+            if (!suggestion.getId().equals(this.clientSuggestionIds.get(suggestion.getDisplayString())))
+                added.add(suggestion);
+        }
+        final int[] addedIds = new int[added.size()];
+        final String[] addedTitles = new String[added.size()];
+        for (int i = 0; i < addedIds.length; i++) {
+            addedIds[i] = added.get(i).getId();
+            addedTitles[i] = added.get(i).getDisplayString();
+        }
+        if (size > 0) {
+            final Map<String, Integer> clientIds = new HashMap<>(size * 2);
+            for (GeocodedLocationSuggestion suggestion : this.suggestions)
+                clientIds.put(suggestion.getDisplayString(), suggestion.getId());
+            this.clientSuggestionIds = clientIds;
+        }
+        this.getRpcProxy(LocationTextFieldClientRpc.class).updateSuggestions(this.suggestionsQuery, ids, addedIds, addedTitles);
+    }
+
     /**
      * Allows developer to set a known address string to be geocoded on the server-side
      * @param address String representation of an address
@@ -244,6 +394,7 @@ public class LocationTextField<E extends GeocodedLocation> extends AbstractField
         if (!Objects.equals(getText(), text)) {
             this.getState().text = text;
             if (geocodeIfDifferent && text.length() > this.getMinimumQueryCharacters()) {
+                this.queryGeneration.incrementAndGet();
                 clearChoices();
                 this.geocoderController.geocode(this, text);
             }
@@ -251,6 +402,33 @@ public class LocationTextField<E extends GeocodedLocation> extends AbstractField
         }
     }
 
+    /**
+     * Sequence number of the latest query sent to the {@link GeocoderController}. It is incremented for every query and
+     * whenever the field is reset, so controllers can recognize and drop results of superseded queries.
+     * @return current query generation
+     */
+    public long getQueryGeneration() {
+        return this.queryGeneration.get();
+    }
+
+    /**
+     * Whether the query currently handed to the {@link GeocoderController} was typed by the user, as opposed to explicitly
+     * requested through {@link #geocode(String)}. Speculative queries may be delayed or dropped by rate limiting providers.
+     * @return true while geocoding user input
+     */
+    public boolean isSpeculativeQuery() {
+        return this.speculativeQuery;
+    }
+
+    /**
+     * Number of queries the client did not send because the suggestions it showed already answered them, as last reported
+     * by the client. Reports are delivered with the client's next query or selection.
+     * @return number of gated queries
+     */
+    public int getQueriesGated() {
+        return this.queriesGated;
+    }
+
     /**
      * Minimum length of displayText WITHOUT whitespace in order to initiate geocoding. Defaults to 3 characters.
      * @return minimum number of characters required to perform geocoding on user input
@@ -275,6 +453,11 @@ public class LocationTextField<E extends GeocodedLocation> extends AbstractField
         return (LocationTextFieldState)super.getState();
     }
 
+    @Override
+    protected LocationTextFieldState getState(boolean markAsDirty) {
+        return (LocationTextFieldState)super.getState(markAsDirty);
+    }
+
     /**
      * Specifies the delay (in milliseconds) between when the user types a character and the geocoding is performed
      * @return start delay in milliseconds
@@ -287,6 +470,59 @@ public class LocationTextField<E extends GeocodedLocation> extends AbstractField
         this.markAsDirty();
     }
 
+    /**
+     * Specifies whether the client adapts the delay to the measured geocoding round trip time and typing speed instead of
+     * always waiting {@link #getDelay()}. The adapted delay stays between {@link #getMinDelay()} and {@link #getMaxDelay()}.
+     * False by default.
+     * @return whether or not the delay is adaptive
+     */
+    public boolean isAdaptiveDelayEnabled() {
+        return this.getState().adaptiveDelayEnabled;
+    }
+    public void setAdaptiveDelayEnabled(boolean adaptiveDelayEnabled) {
+        this.getState().adaptiveDelayEnabled = adaptiveDelayEnabled;
+        this.markAsDirty();
+    }
+
+    /**
+     * Lower bound (in milliseconds) of the adaptive delay. Defaults to 100.
+     * @return minimum adaptive delay in milliseconds
+     */
+    public int getMinDelay() {
+        return this.getState().minDelayMillis;
+    }
+    public void setMinDelay(int minDelayMillis) {
+        this.getState().minDelayMillis = minDelayMillis;
+        this.markAsDirty();
+    }
+
+    /**
+     * Upper bound (in milliseconds) of the adaptive delay. Defaults to 1000.
+     * @return maximum adaptive delay in milliseconds
+     */
+    public int getMaxDelay() {
+        return this.getState().maxDelayMillis;
+    }
+    public void setMaxDelay(int maxDelayMillis) {
+        this.getState().maxDelayMillis = maxDelayMillis;
+        this.markAsDirty();
+    }
+
+    /**
+     * Extra delay (in milliseconds) the client adds before sending queries, whether or not the delay is adaptive. Controllers
+     * raise it to make clients back off while the server is overloaded and lower it again once it recovers.
+     * @return current back-off in milliseconds
+     */
+    public int getDelayBackoff() {
+        return this.getState(false).delayBackoffMillis;
+    }
+    public void setDelayBackoff(int delayBackoffMillis) {
+        if (delayBackoffMillis != this.getDelayBackoff()) {
+            this.getState().delayBackoffMillis = delayBackoffMillis;
+            this.markAsDirty();
+        }
+    }
+
     /**
      * Specifies the tab index of this field in the DOM
      * @return configured tab index
@@ -311,6 +547,23 @@ public class LocationTextField<E extends GeocodedLocation> extends AbstractField
         this.markAsDirty();
     }
 
+    /**
+     * Number of recent queries whose suggestions the client keeps, so that retyping one of them shows its suggestions again
+     * without a round trip. The locations of that many earlier batches stay selectable on the server. Defaults to 16; zero
+     * disables the client-side cache.
+     * @return number of queries cached on the client
+     */
+    public int getClientCacheSize() {
+        return this.getState().clientCacheSize;
+    }
+    public void setClientCacheSize(int clientCacheSize) {
+        if (clientCacheSize < 0) {
+            throw new IllegalArgumentException("clientCacheSize cannot be negative");
+        }
+        this.getState().clientCacheSize = clientCacheSize;
+        this.markAsDirty();
+    }
+
     public void setInputPrompt(String inputPrompt) {
         this.getState().inputPrompt = inputPrompt;
         this.markAsDirty();
@@ -323,31 +576,129 @@ public class LocationTextField<E extends GeocodedLocation> extends AbstractField
      *   {@link GeocodedLocation#getDisplayString()}
      */
     public void addSuggestion(E id, String title) {
-        int index = this.getState().suggestions.size();
-        this.items.put(index, id);
-        List<GeocodedLocationSuggestion> newSuggestionList = new ArrayList<>(this.getState().suggestions);
-        GeocodedLocationSuggestion suggestion = new GeocodedLocationSuggestion();
-        suggestion.setId(index);
-        suggestion.setDisplayString(title);
-        newSuggestionList.add(suggestion);
-        this.getState().suggestions = newSuggestionList;
+        if (this.suggestions.isEmpty()) {
+            this.startBatch();
+            this.pendingSelection = null;
+        }
+        final Set<Integer> usedIds = new HashSet<>();
+        for (GeocodedLocationSuggestion suggestion : this.suggestions)
+            usedIds.add(suggestion.getId());
+        List<GeocodedLocationSuggestion> newSuggestionList = new ArrayList<>(this.suggestions);
+        newSuggestionList.add(this.createSuggestion(id, null, title, usedIds));
+        this.suggestions = newSuggestionList;
+        this.suggestionsQuery = this.getState(false).text;
+        this.suggestionsChanged = true;
         this.markAsDirty();
     }
 
+    /**
+     * Replaces all suggestions of the field in one pass. Each location is shown as its
+     * {@link GeocodedLocation#getDisplayString()}.
+     * @param suggestions locations to suggest, in display order
+     */
+    public void setSuggestions(Collection<E> suggestions) {
+        this.setSuggestions(suggestions, GeocodedLocation::getDisplayString);
+    }
+
+    /**
+     * Replaces all suggestions of the field in one pass
+     * @param suggestions locations to suggest, in display order
+     * @param titles how each location should be shown in the GUI
+     */
+    public void setSuggestions(Collection<E> suggestions, Function<? super E, String> titles) {
+        this.startBatch();
+        final List<GeocodedLocationSuggestion> suggestionList = new ArrayList<>(suggestions.size());
+        final Set<Integer> usedIds = new HashSet<>();
+        for (E location : suggestions)
+            suggestionList.add(this.createSuggestion(location, null, titles.apply(location), usedIds));
+        this.replaceSuggestions(suggestionList);
+    }
+
+    /**
+     * Replaces all suggestions of the field with suggestions which are resolved into locations only once selected, through
+     * {@link GeocoderController#resolve}. Used with a {@link TwoPhaseLocationProvider}.
+     * @param suggestions suggestions in display order
+     */
+    public void setLazySuggestions(Collection<LocationSuggestion> suggestions) {
+        this.startBatch();
+        final List<GeocodedLocationSuggestion> suggestionList = new ArrayList<>(suggestions.size());
+        final Set<Integer> usedIds = new HashSet<>();
+        for (LocationSuggestion suggestion : suggestions)
+            suggestionList.add(this.createSuggestion(null, suggestion, suggestion.getDisplayString(), usedIds));
+        this.replaceSuggestions(suggestionList);
+    }
+
+    private void replaceSuggestions(List<GeocodedLocationSuggestion> suggestionList) {
+        this.suggestions = suggestionList;
+        this.suggestionsQuery = this.getState(false).text;
+        this.suggestionsChanged = true;
+        this.markAsDirty();
+
+        final String selection = this.pendingSelection;
+        this.pendingSelection = null;
+        if (selection != null && this.pendingSelectionGeneration == this.queryGeneration.get()) {
+            for (GeocodedLocationSuggestion suggestion : suggestionList) {
+                if (selection.equals(suggestion.getDisplayString())) {
+                    this.select(this.items.get(suggestion.getId()));
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Fires the location of a selected item, resolving it first if it is a lazy suggestion. A resolved location is kept so
+     * selecting the suggestion again does not resolve it again.
+     */
+    private void select(Item<E> item) {
+        if (item.location == null && item.lazy != null)
+            item.location = this.geocoderController.resolve(this, item.lazy);
+        if (item.location != null)
+            this.fireLocationChanged(item.location);
+    }
+
     @Override
     public E getValue() {
         return this.property;
     }
 
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        this.items = new LinkedHashMap<Integer, Item<E>>();
+        this.suggestions = Collections.emptyList();
+        this.clientSuggestionIds = Collections.emptyMap();
+        this.lastRpcNanos = -1;
+    }
+
+    /**
+     * Location, or lazy suggestion to resolve into one, behind a suggestion id, with the batch which last used the id
+     */
+    private static final class Item<E> {
+
+        private E location;
+        private final LocationSuggestion lazy;
+        private final int batch;
+
+        private Item(E location, LocationSuggestion lazy, int batch) {
+            this.location = location;
+            this.lazy = lazy;
+            this.batch = batch;
+        }
+    }
+
     public static final class Builder<E extends GeocodedLocation> {
 
         private E initialValue;
         private LocationProvider<E> locationProvider;
         private GeocoderController<E> geocoderController;
+        private GeocodingMetrics geocodingMetrics;
         private String text;
         private String caption;
         private List<E> suggestions = Collections.emptyList();
         private int delayMillis = 500;
+        private boolean adaptiveDelayEnabled;
+        private int minDelayMillis = 100;
+        private int maxDelayMillis = 1000;
         private int minimumQueryCharacters = 5;
         private boolean autoSelectEnabled = true;
         private String width;
@@ -372,6 +723,14 @@ public class LocationTextField<E extends GeocodedLocation> extends AbstractField
             return this;
         }
 
+        /**
+         * Metrics for the field and, if it extends {@link AbstractGeocoderController}, its controller
+         */
+        public Builder<E> withGeocodingMetrics(GeocodingMetrics geocodingMetrics) {
+            this.geocodingMetrics = geocodingMetrics;
+            return this;
+        }
+
         public Builder<E> withText(String text) {
             this.text = text;
             return this;
@@ -408,6 +767,22 @@ public class LocationTextField<E extends GeocodedLocation> extends AbstractField
             return this;
         }
 
+        /**
+         * Enables the adaptive delay, bounded by the given min and max delay
+         */
+        public Builder<E> withAdaptiveDelay(int minDelayMillis, int maxDelayMillis) {
+            if (minDelayMillis < 0) {
+                throw new IllegalArgumentException("minDelayMillis cannot be negative");
+            }
+            if (maxDelayMillis < minDelayMillis) {
+                throw new IllegalArgumentException("maxDelayMillis cannot be less than minDelayMillis");
+            }
+            this.adaptiveDelayEnabled = true;
+            this.minDelayMillis = minDelayMillis;
+            this.maxDelayMillis = maxDelayMillis;
+            return this;
+        }
+
         public Builder<E> withMinimumQueryCharacters(int minimumQueryCharacters) {
             if (minimumQueryCharacters < 1) {
                 throw new IllegalArgumentException("minimumQueryCharacters must be greater than one");
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2015 Elihu, LLC. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vaadin.addons.locationtextfield;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram with power of two buckets: a value v is counted in bucket {@code 64 - numberOfLeadingZeros(v)}, so
+ * percentiles are reported as the upper bound of their bucket, i.e. within a factor of two of the real value.
+ */
+final class Log2Histogram implements Serializable {
+
+    private static final long serialVersionUID = 8117634051904532286L;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(65);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+
+    void record(long value) {
+        if (value < 0)
+            value = 0;
+        this.buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(value));
+        this.count.increment();
+        this.sum.add(value);
+    }
+
+    long getCount() {
+        return this.count.sum();
+    }
+
+    long getMean() {
+        final long n = this.count.sum();
+        return n == 0 ? 0 : this.sum.sum() / n;
+    }
+
+    /**
+     * Upper bound of the bucket holding the given percentile
+     * @param percentile percentile between 0 and 1
+     * @return approximate value, or 0 if nothing was recorded
+     */
+    long getPercentile(double percentile) {
+        final long[] snapshot = new long[this.buckets.length()];
+        long total = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = this.buckets.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0)
+            return 0;
+        final long rank = Math.max(1, (long)Math.ceil(percentile * total));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank)
+                return i == 0 ? 0 : i == 64 ? Long.MAX_VALUE : (1L << i) - 1;
+        }
+        return Long.MAX_VALUE;
+    }
+
+    void reset() {
+        for (int i = 0; i < this.buckets.length(); i++)
+            this.buckets.set(i, 0);
+        this.count.reset();
+        this.sum.reset();
+    }
+}
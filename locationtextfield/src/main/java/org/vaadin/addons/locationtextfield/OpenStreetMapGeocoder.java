@@ -20,24 +20,27 @@
 
 package org.vaadin.addons.locationtextfield;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
 /**
  * {@link org.vaadin.addons.locationtextfield.LocationProvider} which uses OpenStreetMap's Nominatim service
  */
-public final class OpenStreetMapGeocoder extends URLConnectionGeocoder<GeocodedLocation> {
+public final class OpenStreetMapGeocoder extends URLConnectionGeocoder<GeocodedLocation>
+  implements ReverseLocationProvider<GeocodedLocation> {
 
     private static final long serialVersionUID = -1577822453327050058L;
 
     private static final String BASE_URL = "https://nominatim.openstreetmap.org/search?format=json&addressdetails=1&q=";
+    private static final String REVERSE_URL = "https://nominatim.openstreetmap.org/reverse?format=json&addressdetails=1";
 
     private static final OpenStreetMapGeocoder INSTANCE = new OpenStreetMapGeocoder();
 
@@ -56,48 +59,113 @@ public final class OpenStreetMapGeocoder extends URLConnectionGeocoder<GeocodedL
         return url;
     }
 
-    protected Collection<GeocodedLocation> createLocations(String address, String input) throws GeocodingException {
+    @Override
+    protected String getReverseURL(double lat, double lon) {
+        return REVERSE_URL + "&lat=" + formatCoordinate(lat) + "&lon=" + formatCoordinate(lon);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Collection<GeocodedLocation> reverseGeocode(double lat, double lon, int limit) throws GeocodingException {
+        return this.fetchReverse(lat, lon, limit);
+    }
+
+    /**
+     * Nominatim answers reverse lookups with a single object, or an object holding only an error message
+     */
+    @Override
+    protected Collection<GeocodedLocation> createReverseLocations(String address, Reader input, int limit)
+      throws GeocodingException {
         final Set<GeocodedLocation> locations = new LinkedHashSet<GeocodedLocation>();
         try {
-            JSONArray results = new JSONArray(input);
-            boolean ambiguous = results.length() > 1;
-            for (int i = 0; i < results.length(); i++) {
-                JSONObject result = results.getJSONObject(i);
-                GeocodedLocation loc = new GeocodedLocation();
-                loc.setAmbiguous(ambiguous);
-                loc.setOriginalAddress(address);
-                loc.setGeocodedAddress(result.getString("display_name"));
-                loc.setLat(Double.parseDouble(result.getString("lat")));
-                loc.setLon(Double.parseDouble(result.getString("lon")));
-                loc.setType(getLocationType(result));
-                if (result.has("address")) {
-                    JSONObject obj = result.getJSONObject("address");
-                    if (obj.has("house_number"))
-                        loc.setStreetNumber(obj.getString("house_number"));
-                    if (obj.has("road"))
-                        loc.setRoute(obj.getString("road"));
-                    if (obj.has("city"))
-                        loc.setLocality(obj.getString("city"));
-                    if (obj.has("county"))
-                        loc.setAdministrativeAreaLevel2(obj.getString("county"));
-                    if (obj.has("state"))
-                        loc.setAdministrativeAreaLevel1(obj.getString("state"));
-                    if (obj.has("postcode"))
-                        loc.setPostalCode(obj.getString("postcode"));
-                    if (obj.has("country_code"))
-                        loc.setCountry(obj.getString("country_code").toUpperCase());
-                }
+            final GeocodedLocation loc = this.readResult(new JsonReader(input), address);
+            if (loc.getGeocodedAddress() != null)
                 locations.add(loc);
-            }
-        } catch (JSONException e) {
+        } catch (IOException e) {
             throw new GeocodingException(e.getMessage(), e);
         }
         return locations;
     }
 
-    private LocationType getLocationType(JSONObject result) throws JSONException {
-        final String classValue = result.getString("class");
-        final String type = result.getString("type");
+    protected Collection<GeocodedLocation> createLocations(String address, String input) throws GeocodingException {
+        return this.createLocations(address, new StringReader(input));
+    }
+
+    /**
+     * Maps the response to locations while it is being read. Reading stops as soon as {@link #getLimit()} results are built.
+     */
+    @Override
+    protected Collection<GeocodedLocation> createLocations(String address, Reader input) throws GeocodingException {
+        final List<GeocodedLocation> locations = new ArrayList<GeocodedLocation>();
+        final JsonReader reader = new JsonReader(input);
+        boolean ambiguous;
+        try {
+            reader.beginArray();
+            while (reader.hasNext() && (this.getLimit() <= 0 || locations.size() < this.getLimit()))
+                locations.add(this.readResult(reader, address));
+            ambiguous = locations.size() > 1 || reader.hasNext();
+        } catch (IOException e) {
+            throw new GeocodingException(e.getMessage(), e);
+        }
+        for (GeocodedLocation loc : locations)
+            loc.setAmbiguous(ambiguous);
+        return new LinkedHashSet<GeocodedLocation>(locations);
+    }
+
+    private GeocodedLocation readResult(JsonReader reader, String address) throws IOException {
+        final GeocodedLocation loc = new GeocodedLocation();
+        loc.setOriginalAddress(address);
+        String classValue = null;
+        String type = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            final String name = reader.nextName();
+            if ("display_name".equals(name))
+                loc.setGeocodedAddress(reader.nextString());
+            else if ("lat".equals(name))
+                loc.setLat(reader.nextDouble());
+            else if ("lon".equals(name))
+                loc.setLon(reader.nextDouble());
+            else if ("class".equals(name))
+                classValue = reader.nextString();
+            else if ("type".equals(name))
+                type = reader.nextString();
+            else if ("address".equals(name))
+                this.readAddress(reader, loc);
+            else
+                reader.skipValue();
+        }
+        reader.endObject();
+        loc.setType(getLocationType(classValue, type));
+        return loc;
+    }
+
+    private void readAddress(JsonReader reader, GeocodedLocation loc) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            final String name = reader.nextName();
+            if ("house_number".equals(name))
+                loc.setStreetNumber(reader.nextString());
+            else if ("road".equals(name))
+                loc.setRoute(reader.nextString());
+            else if ("city".equals(name))
+                loc.setLocality(reader.nextString());
+            else if ("county".equals(name))
+                loc.setAdministrativeAreaLevel2(reader.nextString());
+            else if ("state".equals(name))
+                loc.setAdministrativeAreaLevel1(reader.nextString());
+            else if ("postcode".equals(name))
+                loc.setPostalCode(reader.nextString());
+            else if ("country_code".equals(name))
+                loc.setCountry(reader.nextString().toUpperCase());
+            else
+                reader.skipValue();
+        }
+        reader.endObject();
+    }
+
+    private LocationType getLocationType(String classValue, String type) {
         if ("highway".equals(classValue) || "railway".equals(classValue))
             return LocationType.ROUTE;
         else if ("amenity".equals(classValue) || "liesure".equals(classValue) || "natural".equals(type)
@@ -0,0 +1,349 @@
+/*
+ * Copyright (C) 2015 Elihu, LLC. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vaadin.addons.locationtextfield;
+
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link org.vaadin.addons.locationtextfield.LocationProvider} decorator which persists the results of another provider to
+ * memory-mapped, append-only segment files so they survive restarts. Results are keyed by the provider limit and the
+ * normalized query; stale segments are compacted in the background.
+ *
+ * Instances using the same directory share the underlying files. Call {@link #close()} when the provider is no longer
+ * needed. A deserialized provider acquires the files only once it is used, so copies made by session passivation or
+ * replication which are never used again hold no reference to them.
+ *
+ * Subtypes of {@link org.vaadin.addons.locationtextfield.GeocodedLocation} are cached through a {@link LocationCodec}
+ * which creates them and stores their own fields; all providers sharing a directory must use the same codec.
+ *
+ * When the decorated provider answers in two phases its suggestions are passed through without being persisted.
+ * @param <T> type of geocoding result
+ */
+public class PersistentCachingLocationProvider<T extends GeocodedLocation>
+  implements TwoPhaseLocationProvider<T>, Closeable {
+
+    private static final long serialVersionUID = 8896045271370338573L;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PersistentCachingLocationProvider.class);
+
+    public static final int DEFAULT_SEGMENT_SIZE = 8 * 1024 * 1024;
+    public static final long DEFAULT_TIME_TO_LIVE_MILLIS = TimeUnit.DAYS.toMillis(30);
+    public static final long DEFAULT_COMPACTION_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    public static final double DEFAULT_COMPACTION_THRESHOLD = 0.5;
+
+    private final LocationProvider<T> locationProvider;
+    private final LocationCodec<T> locationCodec;
+    private final File directory;
+    private final int segmentSize;
+    private final long timeToLiveMillis;
+    private final long compactionIntervalMillis;
+    private final double compactionThreshold;
+    private volatile int limit;
+
+    private transient GeocodeCacheStore store;
+
+    public PersistentCachingLocationProvider(LocationProvider<T> locationProvider, LocationCodec<T> locationCodec,
+      File directory) throws IOException {
+        this(locationProvider, locationCodec, directory, DEFAULT_SEGMENT_SIZE, DEFAULT_TIME_TO_LIVE_MILLIS,
+          DEFAULT_COMPACTION_INTERVAL_MILLIS, DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    private PersistentCachingLocationProvider(Builder<T> builder) throws IOException {
+        this(builder.locationProvider, builder.locationCodec, builder.directory, builder.segmentSize,
+          builder.timeToLiveMillis, builder.compactionIntervalMillis, builder.compactionThreshold);
+    }
+
+    private PersistentCachingLocationProvider(LocationProvider<T> locationProvider, LocationCodec<T> locationCodec,
+      File directory, int segmentSize, long timeToLiveMillis, long compactionIntervalMillis, double compactionThreshold)
+      throws IOException {
+        if (locationProvider == null) {
+            throw new IllegalArgumentException("locationProvider cannot be null");
+        }
+        if (locationCodec == null) {
+            throw new IllegalArgumentException("locationCodec cannot be null");
+        }
+        if (directory == null) {
+            throw new IllegalArgumentException("directory cannot be null");
+        }
+        this.locationProvider = locationProvider;
+        this.locationCodec = locationCodec;
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.timeToLiveMillis = timeToLiveMillis;
+        this.compactionIntervalMillis = compactionIntervalMillis;
+        this.compactionThreshold = compactionThreshold;
+        if (locationProvider instanceof URLConnectionGeocoder)
+            this.limit = ((URLConnectionGeocoder<?>)locationProvider).getLimit();
+        this.getStore();
+    }
+
+    /**
+     * Builder caching plain {@link org.vaadin.addons.locationtextfield.GeocodedLocation}s
+     */
+    public static Builder<GeocodedLocation> newBuilder() {
+        return new Builder<GeocodedLocation>(DefaultLocationCodec.INSTANCE);
+    }
+
+    /**
+     * Builder caching the subtype created and stored by the given codec
+     * @param locationCodec codec of the cached locations
+     * @param <T> type of geocoding result
+     */
+    public static <T extends GeocodedLocation> Builder<T> newBuilder(LocationCodec<T> locationCodec) {
+        if (locationCodec == null) {
+            throw new IllegalArgumentException("locationCodec cannot be null");
+        }
+        return new Builder<T>(locationCodec);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Collection<T> geocode(String address) throws GeocodingException {
+        final String key = this.limit + "|" + QueryNormalizer.normalize(address);
+        GeocodeCacheStore store = null;
+        try {
+            store = this.getStore();
+            List<T> cached = store.get(key, System.currentTimeMillis(), this.locationCodec);
+            if (cached != null)
+                return cached;
+        } catch (IOException e) {
+            LOGGER.warn("Error reading cached results for query: {}", address, e);
+        }
+
+        final Collection<T> results = this.locationProvider.geocode(address);
+        if (results != null && store != null) {
+            try {
+                store.put(key, results, System.currentTimeMillis() + this.timeToLiveMillis, this.locationCodec);
+            } catch (IOException e) {
+                LOGGER.warn("Error caching results for query: {}", address, e);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Passes the query to the decorated provider without persisting the suggestions
+     */
+    public Collection<LocationSuggestion> suggest(String address) throws GeocodingException {
+        return TwoPhaseLocationProvider.twoPhase(this.locationProvider).suggest(address);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public T resolve(LocationSuggestion suggestion) throws GeocodingException {
+        return TwoPhaseLocationProvider.twoPhase(this.locationProvider).resolve(suggestion);
+    }
+
+    /**
+     * Whether the decorated provider answers in two phases
+     */
+    public boolean isTwoPhase() {
+        return TwoPhaseLocationProvider.isTwoPhase(this.locationProvider);
+    }
+
+    /**
+     * Sets the limit on the underlying provider; results are cached per limit
+     * @param limit max number of results
+     */
+    public void setLimit(int limit) {
+        this.locationProvider.setLimit(limit);
+        this.limit = limit;
+    }
+
+    /**
+     * The decorated provider
+     */
+    public LocationProvider<T> getLocationProvider() {
+        return this.locationProvider;
+    }
+
+    /**
+     * The codec of the cached locations
+     */
+    public LocationCodec<T> getLocationCodec() {
+        return this.locationCodec;
+    }
+
+    /**
+     * Directory holding the segment files
+     */
+    public File getDirectory() {
+        return this.directory;
+    }
+
+    /**
+     * Number of cached queries, including expired ones not yet compacted; 0 while the files are not acquired
+     */
+    public synchronized int size() {
+        return this.store != null ? this.store.size() : 0;
+    }
+
+    /**
+     * Compacts stale segments immediately rather than waiting for the background compaction
+     * @throws IOException if compaction fails
+     */
+    public void compact() throws IOException {
+        this.getStore().compact();
+    }
+
+    /**
+     * Releases the segment files; they are unmapped once no other provider uses the same directory. Using the provider
+     * again acquires them again.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (this.store != null) {
+            final GeocodeCacheStore store = this.store;
+            this.store = null;
+            store.close();
+        }
+    }
+
+    /**
+     * Acquires the shared store on first use; every acquisition is released by {@link #close()}
+     */
+    private synchronized GeocodeCacheStore getStore() throws IOException {
+        if (this.store == null)
+            this.store = GeocodeCacheStore.open(this.directory, this.segmentSize, this.compactionIntervalMillis,
+              this.compactionThreshold);
+        return this.store;
+    }
+
+    /**
+     * Creates the cached locations and stores the fields a subtype adds to
+     * {@link org.vaadin.addons.locationtextfield.GeocodedLocation}; the base fields are always stored
+     * @param <T> type of geocoding result
+     */
+    public interface LocationCodec<T extends GeocodedLocation> extends Serializable {
+
+        /**
+         * Creates an empty location to read a cached result into
+         */
+        T newLocation();
+
+        /**
+         * Writes the fields the subtype adds, after the base fields
+         * @param out target
+         * @param location location to encode
+         * @throws IOException if writing fails
+         */
+        default void writeFields(DataOutput out, T location) throws IOException {
+        }
+
+        /**
+         * Reads the fields written by {@link #writeFields(DataOutput, GeocodedLocation)}
+         * @param in source
+         * @param location location whose base fields have been read
+         * @throws IOException if reading fails
+         */
+        default void readFields(DataInput in, T location) throws IOException {
+        }
+    }
+
+    private static final class DefaultLocationCodec implements LocationCodec<GeocodedLocation> {
+
+        private static final long serialVersionUID = -3319418829532740672L;
+
+        static final DefaultLocationCodec INSTANCE = new DefaultLocationCodec();
+
+        @Override
+        public GeocodedLocation newLocation() {
+            return new GeocodedLocation();
+        }
+
+        private Object readResolve() {
+            return INSTANCE;
+        }
+    }
+
+    public static final class Builder<T extends GeocodedLocation> {
+
+        private final LocationCodec<T> locationCodec;
+        private LocationProvider<T> locationProvider;
+        private File directory;
+        private int segmentSize = DEFAULT_SEGMENT_SIZE;
+        private long timeToLiveMillis = DEFAULT_TIME_TO_LIVE_MILLIS;
+        private long compactionIntervalMillis = DEFAULT_COMPACTION_INTERVAL_MILLIS;
+        private double compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+
+        private Builder(LocationCodec<T> locationCodec) {
+            this.locationCodec = locationCodec;
+        }
+
+        public Builder<T> withLocationProvider(LocationProvider<T> locationProvider) {
+            this.locationProvider = locationProvider;
+            return this;
+        }
+
+        public Builder<T> withDirectory(File directory) {
+            this.directory = directory;
+            return this;
+        }
+
+        public Builder<T> withSegmentSize(int segmentSize) {
+            if (segmentSize < 1024) {
+                throw new IllegalArgumentException("segmentSize must be at least 1024 bytes");
+            }
+            this.segmentSize = segmentSize;
+            return this;
+        }
+
+        public Builder<T> withTimeToLive(long duration, TimeUnit unit) {
+            if (duration < 1) {
+                throw new IllegalArgumentException("duration must be greater than zero");
+            }
+            this.timeToLiveMillis = unit.toMillis(duration);
+            return this;
+        }
+
+        public Builder<T> withCompactionInterval(long interval, TimeUnit unit) {
+            if (interval < 1) {
+                throw new IllegalArgumentException("interval must be greater than zero");
+            }
+            this.compactionIntervalMillis = unit.toMillis(interval);
+            return this;
+        }
+
+        public Builder<T> withCompactionThreshold(double compactionThreshold) {
+            if (compactionThreshold <= 0 || compactionThreshold > 1) {
+                throw new IllegalArgumentException("compactionThreshold must be between zero and one");
+            }
+            this.compactionThreshold = compactionThreshold;
+            return this;
+        }
+
+        public PersistentCachingLocationProvider<T> build() throws IOException {
+            return new PersistentCachingLocationProvider<T>(this);
+        }
+    }
+}
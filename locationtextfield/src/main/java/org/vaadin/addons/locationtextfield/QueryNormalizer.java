@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2015 Elihu, LLC. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vaadin.addons.locationtextfield;
+
+import java.util.Locale;
+
+/**
+ * Utility for turning user input into a stable key for caching and de-duplicating geocoding queries
+ */
+final class QueryNormalizer {
+
+    private QueryNormalizer() {
+        // nuthin'
+    }
+
+    /**
+     * Normalizes the query by trimming, collapsing runs of whitespace into a single space and lower-casing
+     * @param query raw query
+     * @return normalized query; empty string if query is null
+     */
+    static String normalize(String query) {
+        if (query == null)
+            return "";
+        final StringBuilder builder = new StringBuilder(query.length());
+        boolean pendingSpace = false;
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (Character.isWhitespace(c)) {
+                pendingSpace = builder.length() > 0;
+            } else {
+                if (pendingSpace)
+                    builder.append(' ');
+                builder.append(c);
+                pendingSpace = false;
+            }
+        }
+        return builder.toString().toLowerCase(Locale.ROOT);
+    }
+}
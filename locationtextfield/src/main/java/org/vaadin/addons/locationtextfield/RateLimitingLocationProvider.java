@@ -0,0 +1,320 @@
+/*
+ * Copyright (C) 2015 Elihu, LLC. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vaadin.addons.locationtextfield;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@link org.vaadin.addons.locationtextfield.LocationProvider} decorator which limits the rate of requests to another
+ * provider with a token bucket. Callers which find the bucket empty wait in a bounded queue ordered by priority: explicit
+ * queries (see {@link GeocodingContext#isExplicit()}) go before speculative queries typed by the user, then first come first
+ * served. A waiting query is dropped as soon as a newer query from the same source joins the queue, and a full queue makes
+ * room for an explicit query by dropping the most recent speculative one.
+ *
+ * Dropped, rejected and timed out queries fail with a {@link GeocodingException}; dropped ones are caused by a
+ * {@link java.util.concurrent.CancellationException}.
+ *
+ * When the decorated provider answers in two phases, suggestions and resolutions each take a permit like a query.
+ */
+public class RateLimitingLocationProvider<T extends GeocodedLocation> implements TwoPhaseLocationProvider<T> {
+
+    private static final long serialVersionUID = 1734516618305128745L;
+
+    public static final int DEFAULT_MAX_QUEUE_SIZE = 100;
+    public static final long DEFAULT_MAX_WAIT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    private final LocationProvider<T> locationProvider;
+    private final double permitsPerSecond;
+    private final int burst;
+    private final int maxQueueSize;
+    private final long maxWaitMillis;
+
+    private final AtomicLong delayed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+
+    private transient ReentrantLock lock;
+    private transient Condition changed;
+    private transient PriorityQueue<Waiter> queue;
+    private transient double tokens;
+    private transient long lastRefill;
+    private transient long sequence;
+
+    /**
+     * @param locationProvider provider to limit
+     * @param permitsPerSecond sustained number of requests per second
+     * @param burst max number of requests which may be sent at once after a quiet period
+     */
+    public RateLimitingLocationProvider(LocationProvider<T> locationProvider, double permitsPerSecond, int burst) {
+        this(locationProvider, permitsPerSecond, burst, DEFAULT_MAX_QUEUE_SIZE, DEFAULT_MAX_WAIT_MILLIS);
+    }
+
+    /**
+     * @param locationProvider provider to limit
+     * @param permitsPerSecond sustained number of requests per second
+     * @param burst max number of requests which may be sent at once after a quiet period
+     * @param maxQueueSize max number of callers waiting for a permit
+     * @param maxWaitMillis max time a caller waits for a permit
+     */
+    public RateLimitingLocationProvider(LocationProvider<T> locationProvider, double permitsPerSecond, int burst,
+      int maxQueueSize, long maxWaitMillis) {
+        if (locationProvider == null) {
+            throw new IllegalArgumentException("locationProvider cannot be null");
+        }
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("permitsPerSecond must be greater than zero");
+        }
+        if (burst < 1) {
+            throw new IllegalArgumentException("burst must be greater than zero");
+        }
+        this.locationProvider = locationProvider;
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = burst;
+        this.maxQueueSize = maxQueueSize;
+        this.maxWaitMillis = maxWaitMillis;
+        this.init();
+    }
+
+    /**
+     * Limits the provider to one request per second as required by the Nominatim usage policy
+     * @param locationProvider provider to limit, typically {@link OpenStreetMapGeocoder#getInstance()}
+     * @return rate limited provider
+     */
+    public static <T extends GeocodedLocation> RateLimitingLocationProvider<T> forNominatim(LocationProvider<T> locationProvider) {
+        return new RateLimitingLocationProvider<>(locationProvider, 1, 1);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Collection<T> geocode(String address) throws GeocodingException {
+        this.acquire(GeocodingContext.current());
+        return this.locationProvider.geocode(address);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Collection<LocationSuggestion> suggest(String address) throws GeocodingException {
+        final TwoPhaseLocationProvider<T> provider = TwoPhaseLocationProvider.twoPhase(this.locationProvider);
+        this.acquire(GeocodingContext.current());
+        return provider.suggest(address);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public T resolve(LocationSuggestion suggestion) throws GeocodingException {
+        final TwoPhaseLocationProvider<T> provider = TwoPhaseLocationProvider.twoPhase(this.locationProvider);
+        this.acquire(GeocodingContext.current());
+        return provider.resolve(suggestion);
+    }
+
+    /**
+     * Whether the decorated provider answers in two phases
+     */
+    public boolean isTwoPhase() {
+        return TwoPhaseLocationProvider.isTwoPhase(this.locationProvider);
+    }
+
+    private void acquire(GeocodingContext context) throws GeocodingException {
+        final boolean explicit = context == null || context.isExplicit();
+        final Object source = context == null ? null : context.getSource();
+        final long generation = context == null ? 0 : context.getGeneration();
+
+        this.lock.lock();
+        try {
+            this.refill();
+            if (this.queue.isEmpty() && this.tokens >= 1) {
+                this.tokens -= 1;
+                return;
+            }
+
+            if (source != null) {
+                for (Iterator<Waiter> it = this.queue.iterator(); it.hasNext(); ) {
+                    Waiter waiter = it.next();
+                    if (waiter.source == source && waiter.generation < generation) {
+                        waiter.dropReason = "Query superseded while waiting for rate limit";
+                        it.remove();
+                    }
+                }
+            }
+            if (this.queue.size() >= this.maxQueueSize && !(explicit && this.dropNewestSpeculative())) {
+                this.rejected.incrementAndGet();
+                throw new GeocodingException("Rate limit queue is full");
+            }
+
+            final Waiter waiter = new Waiter(explicit, this.sequence++, source, generation);
+            this.queue.add(waiter);
+            this.delayed.incrementAndGet();
+            this.changed.signalAll();
+
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.maxWaitMillis);
+            while (true) {
+                if (waiter.dropReason != null) {
+                    this.dropped.incrementAndGet();
+                    throw new GeocodingException(waiter.dropReason, new CancellationException(waiter.dropReason));
+                }
+                this.refill();
+                if (this.queue.peek() == waiter && this.tokens >= 1) {
+                    this.queue.poll();
+                    this.tokens -= 1;
+                    this.changed.signalAll();
+                    return;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    this.queue.remove(waiter);
+                    this.changed.signalAll();
+                    this.timedOut.incrementAndGet();
+                    throw new GeocodingException("Timed out waiting for rate limit");
+                }
+                if (this.queue.peek() == waiter)
+                    remaining = Math.min(remaining, (long)((1 - this.tokens) / this.permitsPerSecond * 1e9) + 1);
+                try {
+                    this.changed.awaitNanos(remaining);
+                } catch (InterruptedException e) {
+                    this.queue.remove(waiter);
+                    this.changed.signalAll();
+                    Thread.currentThread().interrupt();
+                    throw new GeocodingException("Interrupted while waiting for rate limit", new CancellationException());
+                }
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private boolean dropNewestSpeculative() {
+        Waiter newest = null;
+        for (Waiter waiter : this.queue) {
+            if (!waiter.explicit && (newest == null || waiter.sequence > newest.sequence))
+                newest = waiter;
+        }
+        if (newest == null)
+            return false;
+        newest.dropReason = "Query dropped from full rate limit queue";
+        this.queue.remove(newest);
+        return true;
+    }
+
+    private void refill() {
+        final long now = System.nanoTime();
+        this.tokens = Math.min(this.burst, this.tokens + (now - this.lastRefill) / 1e9 * this.permitsPerSecond);
+        this.lastRefill = now;
+    }
+
+    public void setLimit(int limit) {
+        this.locationProvider.setLimit(limit);
+    }
+
+    /**
+     * The decorated provider
+     */
+    public LocationProvider<T> getLocationProvider() {
+        return this.locationProvider;
+    }
+
+    /**
+     * Number of callers currently waiting for a permit
+     */
+    public int getQueueSize() {
+        this.lock.lock();
+        try {
+            return this.queue.size();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Number of queries which had to wait for a permit
+     */
+    public long getDelayedCount() {
+        return this.delayed.get();
+    }
+
+    /**
+     * Number of waiting queries dropped because they were superseded or made room for an explicit query
+     */
+    public long getDroppedCount() {
+        return this.dropped.get();
+    }
+
+    /**
+     * Number of queries rejected because the queue was full
+     */
+    public long getRejectedCount() {
+        return this.rejected.get();
+    }
+
+    /**
+     * Number of queries which gave up waiting for a permit
+     */
+    public long getTimedOutCount() {
+        return this.timedOut.get();
+    }
+
+    private void init() {
+        this.lock = new ReentrantLock();
+        this.changed = this.lock.newCondition();
+        this.queue = new PriorityQueue<Waiter>();
+        this.tokens = this.burst;
+        this.lastRefill = System.nanoTime();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        this.init();
+    }
+
+    private static final class Waiter implements Comparable<Waiter> {
+
+        private final boolean explicit;
+        private final long sequence;
+        private final Object source;
+        private final long generation;
+        private String dropReason;
+
+        private Waiter(boolean explicit, long sequence, Object source, long generation) {
+            this.explicit = explicit;
+            this.sequence = sequence;
+            this.source = source;
+            this.generation = generation;
+        }
+
+        @Override
+        public int compareTo(Waiter o) {
+            if (this.explicit != o.explicit)
+                return this.explicit ? -1 : 1;
+            return Long.compare(this.sequence, o.sequence);
+        }
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright (C) 2015 Elihu, LLC. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vaadin.addons.locationtextfield;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link org.vaadin.addons.locationtextfield.LocationProvider} decorator which reuses the results of an earlier query while
+ * the user keeps typing. When a recent result set for a prefix of the new query came back under the provider's limit it is
+ * considered complete; it is then filtered and re-ranked locally against the longer query and the upstream provider is only
+ * invoked if nothing matches.
+ *
+ * Whether a result set is complete can only be judged against the limit the upstream provider was configured with, so the
+ * limit must be passed to the constructor or set through {@link #setLimit(int)}. Until a limit is known every result set is
+ * treated as possibly truncated and all queries go upstream.
+ *
+ * Locally refined results carry the original address of the prefix query which produced them.
+ *
+ * When the decorated provider answers in two phases its suggestions are passed through without local refinement.
+ */
+public class RefiningLocationProvider<T extends GeocodedLocation> implements TwoPhaseLocationProvider<T> {
+
+    private static final long serialVersionUID = 4127908162253339041L;
+
+    public static final int DEFAULT_MAX_ENTRIES = 256;
+    public static final long DEFAULT_TIME_TO_LIVE_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private static final int EXACT_MATCH = 3;
+    private static final int PREFIX_MATCH = 2;
+    private static final int ABBREVIATION_MATCH = 1;
+
+    private final LocationProvider<T> locationProvider;
+    private final int maxEntries;
+    private final long timeToLiveMillis;
+    private int limit;
+
+    private final AtomicLong refinements = new AtomicLong();
+    private final AtomicLong upstreamQueries = new AtomicLong();
+
+    private transient Map<String, ResultSet<T>> recent;
+
+    public RefiningLocationProvider(LocationProvider<T> locationProvider) {
+        this(locationProvider, 0);
+    }
+
+    /**
+     * @param locationProvider provider to refine the results of
+     * @param limit max number of results the provider is configured to return; 0 if unknown
+     */
+    public RefiningLocationProvider(LocationProvider<T> locationProvider, int limit) {
+        this(locationProvider, limit, DEFAULT_MAX_ENTRIES, DEFAULT_TIME_TO_LIVE_MILLIS);
+    }
+
+    public RefiningLocationProvider(LocationProvider<T> locationProvider, int maxEntries, long timeToLiveMillis) {
+        this(locationProvider, 0, maxEntries, timeToLiveMillis);
+    }
+
+    public RefiningLocationProvider(LocationProvider<T> locationProvider, int limit, int maxEntries, long timeToLiveMillis) {
+        if (locationProvider == null) {
+            throw new IllegalArgumentException("locationProvider cannot be null");
+        }
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit cannot be negative");
+        }
+        this.locationProvider = locationProvider;
+        this.limit = limit;
+        this.maxEntries = maxEntries;
+        this.timeToLiveMillis = timeToLiveMillis;
+        this.recent = this.createRecent();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Collection<T> geocode(String address) throws GeocodingException {
+        final String key = QueryNormalizer.normalize(address);
+        final ResultSet<T> prefix = this.findCompletePrefix(key);
+        if (prefix != null) {
+            List<T> refined = this.refine(prefix.results, key);
+            if (!refined.isEmpty()) {
+                this.refinements.incrementAndGet();
+                return refined;
+            }
+        }
+
+        this.upstreamQueries.incrementAndGet();
+        final Collection<T> results = this.locationProvider.geocode(address);
+        if (results != null) {
+            final int max = this.limit;
+            final boolean complete = max > 0 && results.size() < max;
+            synchronized (this) {
+                this.recent.put(key, new ResultSet<T>(new ArrayList<T>(results), complete,
+                  System.currentTimeMillis() + this.timeToLiveMillis));
+            }
+        }
+        return results;
+    }
+
+    private synchronized ResultSet<T> findCompletePrefix(String key) {
+        final long now = System.currentTimeMillis();
+        for (int end = key.length() - 1; end > 0; end--) {
+            final String prefix = key.substring(0, end);
+            ResultSet<T> set = this.recent.get(prefix);
+            if (set == null)
+                continue;
+            if (set.expiresAt <= now) {
+                this.recent.remove(prefix);
+                continue;
+            }
+            if (set.complete)
+                return set;
+        }
+        return null;
+    }
+
+    /**
+     * Filters and re-ranks a result set against the given query. Every token of the query must match a token of the
+     * result exactly, as a prefix or as an abbreviation (e.g. "pkwy" for "parkway"). Results are ordered by how well they
+     * match, keeping the upstream order for ties.
+     * @param results results of a prefix query
+     * @param query normalized query
+     * @return matching results; empty if nothing matches
+     */
+    protected List<T> refine(List<T> results, String query) {
+        final String[] queryTokens = tokenize(query);
+        final List<Scored<T>> scored = new ArrayList<Scored<T>>(results.size());
+        for (int i = 0; i < results.size(); i++) {
+            final T result = results.get(i);
+            final String[] candidateTokens = tokenize(searchableText(result));
+            int score = 0;
+            for (String queryToken : queryTokens) {
+                int best = 0;
+                for (String candidateToken : candidateTokens) {
+                    best = Math.max(best, match(queryToken, candidateToken));
+                    if (best == EXACT_MATCH)
+                        break;
+                }
+                if (best == 0) {
+                    score = -1;
+                    break;
+                }
+                score += best;
+            }
+            if (score >= 0)
+                scored.add(new Scored<T>(result, score, i));
+        }
+        Collections.sort(scored);
+        final List<T> refined = new ArrayList<T>(scored.size());
+        for (Scored<T> s : scored)
+            refined.add(s.result);
+        return refined;
+    }
+
+    private static String searchableText(GeocodedLocation location) {
+        final StringBuilder builder = new StringBuilder();
+        for (String value : new String[] {location.getGeocodedAddress(), location.getStreetNumber(), location.getRoute(),
+          location.getLocality(), location.getAdministrativeAreaLevel1(), location.getAdministrativeAreaLevel2(),
+          location.getCountry(), location.getPostalCode()}) {
+            if (value != null)
+                builder.append(value).append(' ');
+        }
+        return builder.toString().toLowerCase(Locale.ROOT);
+    }
+
+    private static String[] tokenize(String text) {
+        final List<String> tokens = new ArrayList<String>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean letterOrDigit = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (letterOrDigit && start < 0) {
+                start = i;
+            } else if (!letterOrDigit && start >= 0) {
+                tokens.add(text.substring(start, i));
+                start = -1;
+            }
+        }
+        return tokens.toArray(new String[tokens.size()]);
+    }
+
+    private static int match(String queryToken, String candidateToken) {
+        if (candidateToken.equals(queryToken))
+            return EXACT_MATCH;
+        if (candidateToken.startsWith(queryToken))
+            return PREFIX_MATCH;
+        if (queryToken.length() > 1 && candidateToken.length() > queryToken.length()
+          && candidateToken.charAt(0) == queryToken.charAt(0)) {
+            int j = 1;
+            for (int i = 1; i < candidateToken.length() && j < queryToken.length(); i++) {
+                if (candidateToken.charAt(i) == queryToken.charAt(j))
+                    j++;
+            }
+            if (j == queryToken.length())
+                return ABBREVIATION_MATCH;
+        }
+        return 0;
+    }
+
+    /**
+     * Passes the query to the decorated provider; suggestions are not refined locally
+     */
+    public Collection<LocationSuggestion> suggest(String address) throws GeocodingException {
+        return TwoPhaseLocationProvider.twoPhase(this.locationProvider).suggest(address);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public T resolve(LocationSuggestion suggestion) throws GeocodingException {
+        return TwoPhaseLocationProvider.twoPhase(this.locationProvider).resolve(suggestion);
+    }
+
+    /**
+     * Whether the decorated provider answers in two phases
+     */
+    public boolean isTwoPhase() {
+        return TwoPhaseLocationProvider.isTwoPhase(this.locationProvider);
+    }
+
+    /**
+     * Records the limit so result sets can be judged complete and passes it to the underlying provider
+     * @param limit max number of results
+     */
+    public void setLimit(int limit) {
+        this.locationProvider.setLimit(limit);
+        synchronized (this) {
+            this.limit = limit;
+            this.recent.clear();
+        }
+    }
+
+    /**
+     * The decorated provider
+     */
+    public LocationProvider<T> getLocationProvider() {
+        return this.locationProvider;
+    }
+
+    /**
+     * Number of queries answered by refining a previous result set
+     */
+    public long getRefinementCount() {
+        return this.refinements.get();
+    }
+
+    /**
+     * Number of queries passed on to the underlying provider
+     */
+    public long getUpstreamQueryCount() {
+        return this.upstreamQueries.get();
+    }
+
+    private Map<String, ResultSet<T>> createRecent() {
+        return new LinkedHashMap<String, ResultSet<T>>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ResultSet<T>> eldest) {
+                return this.size() > RefiningLocationProvider.this.maxEntries;
+            }
+        };
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        this.recent = this.createRecent();
+    }
+
+    private static final class ResultSet<T extends GeocodedLocation> {
+
+        private final List<T> results;
+        private final boolean complete;
+        private final long expiresAt;
+
+        private ResultSet(List<T> results, boolean complete, long expiresAt) {
+            this.results = results;
+            this.complete = complete;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static final class Scored<T> implements Comparable<Scored<T>> {
+
+        private final T result;
+        private final int score;
+        private final int position;
+
+        private Scored(T result, int score, int position) {
+            this.result = result;
+            this.score = score;
+            this.position = position;
+        }
+
+        @Override
+        public int compareTo(Scored<T> o) {
+            if (this.score != o.score)
+                return this.score > o.score ? -1 : 1;
+            return Integer.compare(this.position, o.position);
+        }
+    }
+}
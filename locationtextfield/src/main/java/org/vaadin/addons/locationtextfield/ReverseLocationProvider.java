@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2015 Elihu, LLC. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vaadin.addons.locationtextfield;
+
+import java.io.Serializable;
+import java.util.Collection;
+
+/**
+ * Interface providing {@link org.vaadin.addons.locationtextfield.GeocodedLocation}s based on coordinates
+ */
+public interface ReverseLocationProvider<T extends GeocodedLocation> extends Serializable {
+
+    /**
+     * Finds the locations at or nearest to the provided coordinates, nearest first
+     * @param lat latitude in degrees
+     * @param lon longitude in degrees
+     * @param limit max number of results; 0 means the provider's default
+     * @return collection of geocoding results
+     * @throws GeocodingException
+     */
+    Collection<T> reverseGeocode(double lat, double lon, int limit) throws GeocodingException;
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2015 Elihu, LLC. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vaadin.addons.locationtextfield;
+
+import java.util.Collection;
+
+/**
+ * {@link LocationProvider} which can split geocoding in two phases: a cheap {@link #suggest(String)} answering each
+ * keystroke with display strings only, and {@link #resolve(LocationSuggestion)} hydrating the one suggestion the user
+ * selects. {@link AbstractGeocoderController} uses both phases for such providers; {@link #geocode(String)} remains
+ * available for callers needing full locations up front.
+ *
+ * The decorators of this package implement this interface whatever they wrap and report through {@link #isTwoPhase()}
+ * whether the providers they wrap answer in two phases, so wrapping a provider keeps it two-phase.
+ */
+public interface TwoPhaseLocationProvider<T extends GeocodedLocation> extends LocationProvider<T> {
+
+    /**
+     * Finds suggestions for the provided address without resolving them into locations
+     * @param address String representation of a physical address
+     * @return suggestions in the order they should be shown
+     * @throws GeocodingException
+     */
+    Collection<LocationSuggestion> suggest(String address) throws GeocodingException;
+
+    /**
+     * Resolves a suggestion previously returned by {@link #suggest(String)} into a fully populated location
+     * @param suggestion suggestion selected by the user
+     * @return location, or null if the suggestion can no longer be resolved
+     * @throws GeocodingException
+     */
+    T resolve(LocationSuggestion suggestion) throws GeocodingException;
+
+    /**
+     * Whether {@link #suggest(String)} and {@link #resolve(LocationSuggestion)} can be used. True unless this is a
+     * decorator around providers which do not answer in two phases.
+     */
+    default boolean isTwoPhase() {
+        return true;
+    }
+
+    /**
+     * Whether the given provider answers in two phases
+     * @param provider provider to check
+     * @return true if the provider is a {@link TwoPhaseLocationProvider} whose {@link #isTwoPhase()} is true
+     */
+    static boolean isTwoPhase(LocationProvider<?> provider) {
+        return provider instanceof TwoPhaseLocationProvider && ((TwoPhaseLocationProvider<?>)provider).isTwoPhase();
+    }
+
+    /**
+     * The given provider as a {@link TwoPhaseLocationProvider}, for decorators forwarding the two phases
+     * @param provider provider to forward to
+     * @return provider
+     * @throws GeocodingException if the provider does not answer in two phases
+     */
+    static <T extends GeocodedLocation> TwoPhaseLocationProvider<T> twoPhase(LocationProvider<T> provider)
+      throws GeocodingException {
+        if (!isTwoPhase(provider))
+            throw new GeocodingException(provider.getClass().getSimpleName() + " does not answer in two phases");
+        return (TwoPhaseLocationProvider<T>)provider;
+    }
+}
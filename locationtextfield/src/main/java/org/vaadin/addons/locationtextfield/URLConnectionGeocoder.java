@@ -19,50 +19,167 @@
 
 package org.vaadin.addons.locationtextfield;
 
-import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.ObjectInputStream;
+import java.io.Reader;
 import java.io.UnsupportedEncodingException;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.net.URLConnection;
+import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * {@link org.vaadin.addons.locationtextfield.LocationProvider} shell implementation that fetches data from an URL and delegates to implementing class to decode
+ *
+ * Concurrent calls for the same normalized address are coalesced by default: the first caller fetches the URL and every
+ * other caller waits for and shares its (unmodifiable) result collection.
+ *
+ * If the current {@link GeocodingContext} is cancelled while the URL is being fetched the connection is closed and a
+ * {@link GeocodingException} caused by a {@link java.util.concurrent.CancellationException} is thrown.
+ *
+ * Requests are sent through a {@link GeocoderTransport}; by default a {@link URLConnectionTransport} with keep-alive
+ * connections and explicit timeouts.
  */
 public abstract class URLConnectionGeocoder<T extends GeocodedLocation> implements LocationProvider<T> {
 
     private static final long serialVersionUID = 5327532769619163531L;
 
     private int limit;
+    private boolean coalescingEnabled = true;
+    private GeocoderTransport transport = new URLConnectionTransport();
+    private GeocodingMetrics metrics = GeocodingMetrics.NONE;
+
+    private final AtomicLong upstreamRequests = new AtomicLong();
+    private final AtomicLong coalescedRequests = new AtomicLong();
+    private transient ConcurrentMap<String, CompletableFuture<Collection<T>>> inFlight =
+      new ConcurrentHashMap<String, CompletableFuture<Collection<T>>>();
 
     public Collection<T> geocode(String address) throws GeocodingException {
+        if (!this.coalescingEnabled)
+            return this.fetch(address);
+
+        final String key = this.limit + "|" + QueryNormalizer.normalize(address);
+        while (true) {
+            final CompletableFuture<Collection<T>> future = new CompletableFuture<Collection<T>>();
+            final CompletableFuture<Collection<T>> existing = this.inFlight.putIfAbsent(key, future);
+            if (existing != null) {
+                final Collection<T> results;
+                try {
+                    results = this.await(existing);
+                } catch (GeocodingException e) {
+                    // counted only once the shared answer is used, so retries below don't count the call again
+                    if (!isCancellation(e)) {
+                        this.coalescedRequests.incrementAndGet();
+                        throw e;
+                    }
+                    // the shared request was cancelled by the caller which started it; retry unless we were cancelled too
+                    final GeocodingContext context = GeocodingContext.current();
+                    if (context != null && context.isCancelled())
+                        throw e;
+                    continue;
+                }
+                this.coalescedRequests.incrementAndGet();
+                return results;
+            }
+            try {
+                final Collection<T> results = Collections.unmodifiableCollection(this.fetch(address));
+                future.complete(results);
+                return results;
+            } catch (Throwable e) {
+                // complete on errors too, otherwise coalesced callers would wait on the future forever
+                future.completeExceptionally(e);
+                throw e;
+            } finally {
+                this.inFlight.remove(key, future);
+            }
+        }
+    }
+
+    private Collection<T> await(CompletableFuture<Collection<T>> future) throws GeocodingException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GeocodingException("Interrupted while waiting for in-flight request", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof GeocodingException)
+                throw (GeocodingException)e.getCause();
+            throw new GeocodingException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private Collection<T> fetch(String address) throws GeocodingException {
+        final String url;
+        try {
+            url = getURL(address);
+        } catch (UnsupportedEncodingException e) {
+            throw new GeocodingException(e.getMessage(), e);
+        }
+        return this.fetch(address, url, false, this.limit);
+    }
+
+    /**
+     * Fetches the locations at the given coordinates from {@link #getReverseURL(double, double)}. Meant for subclasses
+     * implementing {@link ReverseLocationProvider}; reverse requests are not coalesced. Fails with a
+     * {@link GeocodingException} if the subclass does not provide a reverse URL.
+     * @param lat latitude in degrees
+     * @param lon longitude in degrees
+     * @param limit max number of results; 0 means unbounded
+     * @return collection of {@link org.vaadin.addons.locationtextfield.GeocodedLocation} objects
+     * @throws org.vaadin.addons.locationtextfield.GeocodingException
+     */
+    protected Collection<T> fetchReverse(double lat, double lon, int limit) throws GeocodingException {
+        final String url;
+        try {
+            url = getReverseURL(lat, lon);
+        } catch (UnsupportedEncodingException e) {
+            throw new GeocodingException(e.getMessage(), e);
+        }
+        if (url == null)
+            throw new GeocodingException(getClass().getSimpleName() + " does not support reverse geocoding");
+        final String address = formatCoordinate(lat) + "," + formatCoordinate(lon);
+        return Collections.unmodifiableCollection(this.fetch(address, url, true, limit));
+    }
+
+    private Collection<T> fetch(String address, String url, boolean reverse, int limit) throws GeocodingException {
+        final GeocodingContext context = GeocodingContext.current();
+        if (context != null && context.isCancelled())
+            throw cancelled(null);
+        this.upstreamRequests.incrementAndGet();
         final Set<T> locations = new LinkedHashSet<T>();
-        BufferedReader reader = null;
+        final AtomicLong bytes = new AtomicLong();
+        Reader reader = null;
         try {
-            String addr = getURL(address);
-            HttpURLConnection con = (HttpURLConnection)new URL(addr).openConnection();
-            con.setDoOutput(true);
-            con.setFollowRedirects(true);
-            con.connect();
-            reader = new BufferedReader(new InputStreamReader(con.getInputStream(), getEncoding()));
-            final StringBuilder builder = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null)
-                builder.append(line);
-            Collection<T> locs = createLocations(address, builder.toString());
-            if (this.limit > 0 && locs.size() > this.limit) {
+            final InputStream body = new CountingInputStream(this.transport.get(url), bytes);
+            try {
+                reader = new InputStreamReader(body, getEncoding());
+            } catch (IOException e) {
+                body.close();
+                throw e;
+            }
+            final long start = System.nanoTime();
+            Collection<T> locs = reverse ? createReverseLocations(address, reader, limit) : createLocations(address, reader);
+            this.metrics.parseTime(System.nanoTime() - start);
+            if (limit > 0 && locs.size() > limit) {
                 List<T> list = new ArrayList<T>(locs);
-                locations.addAll(list.subList(0, this.limit));
+                locations.addAll(list.subList(0, limit));
             } else {
                 locations.addAll(locs);
             }
         } catch (Exception e) {
+            if (context != null && context.isCancelled())
+                throw cancelled(e);
             throw new GeocodingException(e.getMessage(), e);
         } finally {
             if (reader != null) {
@@ -72,10 +189,22 @@ public abstract class URLConnectionGeocoder<T extends GeocodedLocation> implemen
                     // ignore
                 }
             }
+            this.metrics.bytesRead(bytes.get());
         }
         return locations;
     }
 
+    private static GeocodingException cancelled(Exception cause) {
+        final CancellationException cancellation = new CancellationException("Geocoding request cancelled");
+        if (cause != null)
+            cancellation.initCause(cause);
+        return new GeocodingException(cancellation.getMessage(), cancellation);
+    }
+
+    private static boolean isCancellation(GeocodingException e) {
+        return e.getCause() instanceof CancellationException;
+    }
+
     /**
      * Encoding the response stream is to be expected.  Default is UTF-8.  Override in subclass as necessary.
      */
@@ -91,6 +220,44 @@ public abstract class URLConnectionGeocoder<T extends GeocodedLocation> implemen
      */
     protected abstract String getURL(String address) throws UnsupportedEncodingException;
 
+    /**
+     * Retrieve the full URL to fetch for a reverse lookup.  Subclasses implementing {@link ReverseLocationProvider} must
+     * override this method; by default there is none and {@link #fetchReverse(double, double, int)} fails.  Coordinates
+     * should be formatted with {@link #formatCoordinate(double)}.
+     * @param lat latitude in degrees
+     * @param lon longitude in degrees
+     * @return full URL, or null if reverse lookups are not supported
+     * @throws java.io.UnsupportedEncodingException if subclass uses {@link java.net.URLEncoder} and it fails
+     */
+    protected String getReverseURL(double lat, double lon) throws UnsupportedEncodingException {
+        return null;
+    }
+
+    /**
+     * Formats a coordinate in plain decimal notation independent of the default locale, e.g. "0.0001" rather than
+     * "1.0E-4"
+     * @param value coordinate in degrees
+     * @return formatted coordinate
+     */
+    protected static String formatCoordinate(double value) {
+        return BigDecimal.valueOf(value).stripTrailingZeros().toPlainString();
+    }
+
+    /**
+     * Creates {@link org.vaadin.addons.locationtextfield.GeocodedLocation} objects from a reverse lookup response.  By
+     * default the response is expected in the same format as forward lookups and is passed to
+     * {@link #createLocations(String, Reader)}; subclasses parsing incrementally should override this method to stop at
+     * {@code limit} instead of {@link #getLimit()}.
+     * @param address coordinates as "lat,lon"
+     * @param input response stream; closed by the caller
+     * @param limit max number of results of the reverse lookup; 0 means unbounded
+     * @return collection of {@link org.vaadin.addons.locationtextfield.GeocodedLocation} objects
+     * @throws org.vaadin.addons.locationtextfield.GeocodingException
+     */
+    protected Collection<T> createReverseLocations(String address, Reader input, int limit) throws GeocodingException {
+        return createLocations(address, input);
+    }
+
     /**
      * Creates {@link org.vaadin.addons.locationtextfield.GeocodedLocation} objects from response stream
      * @param address input address
@@ -100,6 +267,29 @@ public abstract class URLConnectionGeocoder<T extends GeocodedLocation> implemen
      */
     protected abstract Collection<T> createLocations(String address, String input) throws GeocodingException;
 
+    /**
+     * Creates {@link org.vaadin.addons.locationtextfield.GeocodedLocation} objects while reading the response stream.
+     * Subclasses able to parse incrementally should override this method and stop reading once {@link #getLimit()} results
+     * are built. By default the whole response is read into a string and passed to
+     * {@link #createLocations(String, String)}.
+     * @param address input address
+     * @param input response stream; closed by the caller
+     * @return collection of {@link org.vaadin.addons.locationtextfield.GeocodedLocation} objects
+     * @throws org.vaadin.addons.locationtextfield.GeocodingException
+     */
+    protected Collection<T> createLocations(String address, Reader input) throws GeocodingException {
+        final StringBuilder builder = new StringBuilder();
+        final char[] buffer = new char[4096];
+        try {
+            int read;
+            while ((read = input.read(buffer)) >= 0)
+                builder.append(buffer, 0, read);
+        } catch (IOException e) {
+            throw new GeocodingException(e.getMessage(), e);
+        }
+        return createLocations(address, builder.toString());
+    }
+
     /**
      * Max number of results; default is0 which means unbounded
      */
@@ -109,4 +299,56 @@ public abstract class URLConnectionGeocoder<T extends GeocodedLocation> implemen
     public void setLimit(int limit) {
         this.limit = limit;
     }
+
+    /**
+     * Transport used to fetch URLs; default is a {@link URLConnectionTransport}
+     */
+    public GeocoderTransport getTransport() {
+        return this.transport;
+    }
+    public void setTransport(GeocoderTransport transport) {
+        if (transport == null) {
+            throw new IllegalArgumentException("transport cannot be null");
+        }
+        this.transport = transport;
+    }
+
+    /**
+     * Metrics notified of bytes read and parse times; default is {@link GeocodingMetrics#NONE}
+     */
+    public GeocodingMetrics getGeocodingMetrics() {
+        return this.metrics;
+    }
+    public void setGeocodingMetrics(GeocodingMetrics metrics) {
+        this.metrics = metrics != null ? metrics : GeocodingMetrics.NONE;
+    }
+
+    /**
+     * Whether concurrent calls for the same normalized address share a single request; default is true
+     */
+    public boolean isCoalescingEnabled() {
+        return this.coalescingEnabled;
+    }
+    public void setCoalescingEnabled(boolean coalescingEnabled) {
+        this.coalescingEnabled = coalescingEnabled;
+    }
+
+    /**
+     * Number of requests actually sent to the URL
+     */
+    public long getUpstreamRequestCount() {
+        return this.upstreamRequests.get();
+    }
+
+    /**
+     * Number of calls which were answered by sharing another call's in-flight request
+     */
+    public long getCoalescedRequestCount() {
+        return this.coalescedRequests.get();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        this.inFlight = new ConcurrentHashMap<String, CompletableFuture<Collection<T>>>();
+    }
 }
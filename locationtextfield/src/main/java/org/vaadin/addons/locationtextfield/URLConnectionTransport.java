@@ -0,0 +1,357 @@
+/*
+ * Copyright (C) 2015 Elihu, LLC. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vaadin.addons.locationtextfield;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.ObjectInputStream;
+import java.io.PushbackInputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Default {@link org.vaadin.addons.locationtextfield.GeocoderTransport} built on {@link java.net.HttpURLConnection}.
+ *
+ * Response streams are drained and closed rather than disconnected so the JDK keeps the (TLS) connection alive for reuse;
+ * the size of the JDK keep-alive pool is bounded per destination by the {@code http.maxConnections} system property. The
+ * number of concurrent requests per host is limited separately by this transport. Connect and read timeouts apply to each
+ * socket operation while the total timeout bounds the whole request, including waiting for a per-host permit; it is
+ * checked between reads so a single blocked read is bounded by the read timeout.
+ *
+ * Unless disabled, gzip and deflate encodings are negotiated and responses are decompressed transparently. The number of
+ * bytes received on the wire and after decompression are counted so the savings can be monitored per provider.
+ */
+public class URLConnectionTransport implements GeocoderTransport {
+
+    private static final long serialVersionUID = -3874205128771407367L;
+
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 5000;
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 10000;
+    public static final int DEFAULT_TOTAL_TIMEOUT_MILLIS = 15000;
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 8;
+
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+    private int connectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+    private int readTimeoutMillis = DEFAULT_READ_TIMEOUT_MILLIS;
+    private int totalTimeoutMillis = DEFAULT_TOTAL_TIMEOUT_MILLIS;
+    private int maxConnectionsPerHost = DEFAULT_MAX_CONNECTIONS_PER_HOST;
+    private boolean followRedirects = true;
+    private String userAgent = "LocationTextField";
+    private boolean compressionEnabled = true;
+
+    private final AtomicLong responses = new AtomicLong();
+    private final AtomicLong wireBytes = new AtomicLong();
+    private final AtomicLong decodedBytes = new AtomicLong();
+
+    private transient ConcurrentMap<String, Semaphore> hostPermits = new ConcurrentHashMap<String, Semaphore>();
+
+    /**
+     * {@inheritDoc}
+     */
+    public InputStream get(String url) throws IOException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.totalTimeoutMillis);
+        final URL target = new URL(url);
+        final Semaphore permits = this.getPermits(target.getHost());
+        try {
+            if (!permits.tryAcquire(remainingMillis(deadline), TimeUnit.MILLISECONDS))
+                throw new SocketTimeoutException("Timed out waiting for a connection to " + target.getHost());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a connection to " + target.getHost());
+        }
+
+        final GeocodingContext context = GeocodingContext.current();
+        HttpURLConnection con = null;
+        Runnable abort = null;
+        try {
+            con = (HttpURLConnection)target.openConnection();
+            if (context != null) {
+                abort = con::disconnect;
+                context.addCancelListener(abort);
+            }
+            con.setRequestMethod("GET");
+            con.setInstanceFollowRedirects(this.followRedirects);
+            con.setConnectTimeout(timeout(this.connectTimeoutMillis, deadline));
+            con.setReadTimeout(timeout(this.readTimeoutMillis, deadline));
+            con.setRequestProperty("Accept", "application/json");
+            if (this.userAgent != null)
+                con.setRequestProperty("User-Agent", this.userAgent);
+            if (this.compressionEnabled)
+                con.setRequestProperty("Accept-Encoding", "gzip, deflate");
+            this.configure(con);
+
+            final int status = con.getResponseCode();
+            if (status >= 400) {
+                drainAndClose(con.getErrorStream());
+                throw new IOException("HTTP " + status + " returned for " + target.getHost());
+            }
+            return new ResponseStream(this.openBody(con), con, permits, context, abort, deadline);
+        } catch (IOException | RuntimeException e) {
+            if (abort != null)
+                context.removeCancelListener(abort);
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Hook for subclasses to add request properties before the request is sent
+     * @param con connection about to be opened
+     */
+    protected void configure(HttpURLConnection con) {
+    }
+
+    /**
+     * Opens the response body of a successful request, decoding it according to its Content-Encoding
+     * @param con connection
+     * @return decoded response body
+     * @throws IOException if the body cannot be opened
+     */
+    protected InputStream openBody(HttpURLConnection con) throws IOException {
+        this.responses.incrementAndGet();
+        final InputStream raw = new CountingInputStream(con.getInputStream(), this.wireBytes);
+        final String encoding = con.getContentEncoding();
+        InputStream decoded = raw;
+        if ("gzip".equalsIgnoreCase(encoding) || "x-gzip".equalsIgnoreCase(encoding)) {
+            decoded = new GZIPInputStream(raw, 8192);
+        } else if ("deflate".equalsIgnoreCase(encoding)) {
+            // some servers send raw deflate data instead of the zlib format required by the spec
+            final PushbackInputStream pushback = new PushbackInputStream(raw, 2);
+            final byte[] header = new byte[2];
+            int read = 0;
+            int n;
+            while (read < 2 && (n = pushback.read(header, read, 2 - read)) > 0)
+                read += n;
+            if (read > 0)
+                pushback.unread(header, 0, read);
+            final boolean zlib = read == 2 && (header[0] & 0x0F) == 8 && ((header[0] & 0xFF) << 8 | (header[1] & 0xFF)) % 31 == 0;
+            decoded = new InflaterInputStream(pushback, new Inflater(!zlib), 8192);
+        }
+        return new CountingInputStream(decoded, this.decodedBytes);
+    }
+
+    private Semaphore getPermits(String host) {
+        Semaphore permits = this.hostPermits.get(host);
+        if (permits == null) {
+            permits = new Semaphore(this.maxConnectionsPerHost, true);
+            Semaphore existing = this.hostPermits.putIfAbsent(host, permits);
+            if (existing != null)
+                permits = existing;
+        }
+        return permits;
+    }
+
+    private static long remainingMillis(long deadline) {
+        return TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+    }
+
+    private static int timeout(int timeoutMillis, long deadline) throws SocketTimeoutException {
+        long remaining = remainingMillis(deadline);
+        if (remaining <= 0)
+            throw new SocketTimeoutException("Total timeout exceeded");
+        return (int)Math.min(timeoutMillis, remaining);
+    }
+
+    private static void drainAndClose(InputStream in) {
+        if (in == null)
+            return;
+        try {
+            final byte[] buffer = new byte[4096];
+            int drained = 0;
+            int read;
+            while (drained < MAX_DRAIN_BYTES && (read = in.read(buffer)) >= 0)
+                drained += read;
+        } catch (IOException e) {
+            // ignore
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * Timeout for establishing a connection; default is 5 seconds
+     */
+    public int getConnectTimeoutMillis() {
+        return this.connectTimeoutMillis;
+    }
+    public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    /**
+     * Timeout for each read from the socket; default is 10 seconds
+     */
+    public int getReadTimeoutMillis() {
+        return this.readTimeoutMillis;
+    }
+    public void setReadTimeoutMillis(int readTimeoutMillis) {
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    /**
+     * Timeout for the whole request from waiting for a permit to reading the last byte; default is 15 seconds
+     */
+    public int getTotalTimeoutMillis() {
+        return this.totalTimeoutMillis;
+    }
+    public void setTotalTimeoutMillis(int totalTimeoutMillis) {
+        this.totalTimeoutMillis = totalTimeoutMillis;
+    }
+
+    /**
+     * Max number of concurrent requests per host; default is 8. Only applies to hosts not contacted yet.
+     */
+    public int getMaxConnectionsPerHost() {
+        return this.maxConnectionsPerHost;
+    }
+    public void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+        if (maxConnectionsPerHost < 1) {
+            throw new IllegalArgumentException("maxConnectionsPerHost must be greater than zero");
+        }
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+    }
+
+    public boolean isFollowRedirects() {
+        return this.followRedirects;
+    }
+    public void setFollowRedirects(boolean followRedirects) {
+        this.followRedirects = followRedirects;
+    }
+
+    /**
+     * User-Agent header sent with each request. Nominatim's usage policy requires an identifying User-Agent.
+     */
+    public String getUserAgent() {
+        return this.userAgent;
+    }
+    public void setUserAgent(String userAgent) {
+        this.userAgent = userAgent;
+    }
+
+    /**
+     * Whether gzip/deflate compressed responses are requested; default is true
+     */
+    public boolean isCompressionEnabled() {
+        return this.compressionEnabled;
+    }
+    public void setCompressionEnabled(boolean compressionEnabled) {
+        this.compressionEnabled = compressionEnabled;
+    }
+
+    /**
+     * Number of successful responses received
+     */
+    public long getResponseCount() {
+        return this.responses.get();
+    }
+
+    /**
+     * Number of response body bytes received on the wire, i.e. before decompression
+     */
+    public long getWireByteCount() {
+        return this.wireBytes.get();
+    }
+
+    /**
+     * Number of response body bytes after decompression
+     */
+    public long getDecodedByteCount() {
+        return this.decodedBytes.get();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        this.hostPermits = new ConcurrentHashMap<String, Semaphore>();
+    }
+
+    /**
+     * Response body which enforces the total timeout, returns the connection to the keep-alive cache on close and
+     * releases the per-host permit
+     */
+    private static final class ResponseStream extends FilterInputStream {
+
+        private final HttpURLConnection con;
+        private final Semaphore permits;
+        private final GeocodingContext context;
+        private final Runnable abort;
+        private final long deadline;
+        private boolean closed;
+
+        private ResponseStream(InputStream in, HttpURLConnection con, Semaphore permits, GeocodingContext context,
+          Runnable abort, long deadline) {
+            super(in);
+            this.con = con;
+            this.permits = permits;
+            this.context = context;
+            this.abort = abort;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public int read() throws IOException {
+            this.checkDeadline();
+            return super.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            this.checkDeadline();
+            return super.read(b, off, len);
+        }
+
+        private void checkDeadline() throws IOException {
+            if (System.nanoTime() - this.deadline > 0) {
+                this.con.disconnect();
+                throw new SocketTimeoutException("Total timeout exceeded");
+            }
+        }
+
+        @Override
+        public void close() {
+            if (this.closed)
+                return;
+            this.closed = true;
+            try {
+                if (this.context == null || !this.context.isCancelled())
+                    drainAndClose(this.in);
+            } finally {
+                if (this.abort != null)
+                    this.context.removeCancelListener(this.abort);
+                this.permits.release();
+            }
+        }
+    }
+}
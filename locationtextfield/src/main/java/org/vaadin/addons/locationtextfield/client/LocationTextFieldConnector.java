@@ -40,6 +40,12 @@ public class LocationTextFieldConnector extends AbstractFieldConnector
 
     public LocationTextFieldConnector() {
         this.serverRpc = RpcProxy.create(LocationTextFieldServerRpc.class, this);
+        registerRpc(LocationTextFieldClientRpc.class, new LocationTextFieldClientRpc() {
+            @Override
+            public void updateSuggestions(String query, int[] ids, int[] newIds, String[] newDisplayStrings) {
+                getWidget().updateSuggestions(query, ids, newIds, newDisplayStrings);
+            }
+        });
         getWidget().setGeocodeListener(this);
         getWidget().addSelectionHandler(this);
         getWidget().addTextChangeHandler(this);
@@ -65,9 +71,9 @@ public class LocationTextFieldConnector extends AbstractFieldConnector
         getWidget().setAutoSelectEnabled(getState().autoSelectEnabled);
     }
 
-    @OnStateChange("suggestions")
-    private void updateSuggestions() {
-        getWidget().setSuggestions(getState().suggestions);
+    @OnStateChange("clientCacheSize")
+    private void updateClientCacheSize() {
+        getWidget().setCacheSize(getState().clientCacheSize);
     }
 
     @OnStateChange("delayMillis")
@@ -75,6 +81,16 @@ public class LocationTextFieldConnector extends AbstractFieldConnector
         getWidget().setDelayMillis(getState().delayMillis);
     }
 
+    @OnStateChange({"adaptiveDelayEnabled", "minDelayMillis", "maxDelayMillis"})
+    private void updateAdaptiveDelay() {
+        getWidget().setAdaptiveDelay(getState().adaptiveDelayEnabled, getState().minDelayMillis, getState().maxDelayMillis);
+    }
+
+    @OnStateChange("delayBackoffMillis")
+    private void updateDelayBackoff() {
+        getWidget().setDelayBackoffMillis(getState().delayBackoffMillis);
+    }
+
     @OnStateChange("tabIndex")
     private void setTabIndex() {
         getWidget().setTabIndex(getState().tabIndex);
@@ -96,6 +112,11 @@ public class LocationTextFieldConnector extends AbstractFieldConnector
         this.serverRpc.geocode(query);
     }
 
+    @Override
+    public void handleQueriesGated(int total) {
+        this.serverRpc.queriesGated(total);
+    }
+
     @Override
     public void onSelection(SelectionEvent<SuggestOracle.Suggestion> event) {
         GeocodedLocationSuggestion suggestion =
@@ -19,6 +19,7 @@
 
 package org.vaadin.addons.locationtextfield.client;
 
+import com.vaadin.shared.annotations.Delayed;
 import com.vaadin.shared.communication.ServerRpc;
 
 public interface LocationTextFieldServerRpc extends ServerRpc {
@@ -39,4 +40,12 @@ public interface LocationTextFieldServerRpc extends ServerRpc {
      * Callback to denote input has been cleared on client
      */
     void inputCleared();
+
+    /**
+     * Reports how many queries the client did not send because the suggestions it showed already answered them. Only the
+     * latest report is delivered, with the next non-delayed RPC.
+     * @param total number of queries not sent since the client was created
+     */
+    @Delayed(lastOnly = true)
+    void queriesGated(int total);
 }
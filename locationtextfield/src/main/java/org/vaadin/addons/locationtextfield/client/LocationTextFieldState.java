@@ -22,16 +22,17 @@ package org.vaadin.addons.locationtextfield.client;
 import com.vaadin.shared.AbstractFieldState;
 import com.vaadin.shared.annotations.DelegateToWidget;
 
-import java.util.Collections;
-import java.util.List;
-
 public class LocationTextFieldState extends AbstractFieldState {
     public String text;
     @DelegateToWidget
     public String inputPrompt;
-    public List<GeocodedLocationSuggestion> suggestions = Collections.emptyList();
     public int delayMillis = 300;
+    public boolean adaptiveDelayEnabled = false;
+    public int minDelayMillis = 100;
+    public int maxDelayMillis = 1000;
+    public int delayBackoffMillis = 0;
     @DelegateToWidget
     public int minimumQueryCharacters = 3;
     public boolean autoSelectEnabled = true;
+    public int clientCacheSize = 16;
 }
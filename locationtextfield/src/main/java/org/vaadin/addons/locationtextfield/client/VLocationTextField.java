@@ -19,6 +19,7 @@
 
 package org.vaadin.addons.locationtextfield.client;
 
+import com.google.gwt.core.client.Duration;
 import com.google.gwt.core.client.GWT;
 import com.google.gwt.event.dom.client.KeyCodes;
 import com.google.gwt.event.dom.client.KeyUpEvent;
@@ -33,7 +34,10 @@ import com.vaadin.client.ui.VTextField;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 public class VLocationTextField extends Composite implements KeyUpHandler, Focusable {
 
@@ -44,13 +48,30 @@ public class VLocationTextField extends Composite implements KeyUpHandler, Focus
     private final VTextField textField;
     private final SuggestBox suggestBox;
 
+    private static final double SMOOTHING = 0.3;
+    private static final double MAX_KEY_GAP_MILLIS = 2000;
+
     private int delayMillis = 300;
+    private boolean adaptiveDelay = false;
+    private int minDelayMillis = 100;
+    private int maxDelayMillis = 1000;
+    private int delayBackoffMillis = 0;
+    private double latencyEstimate = -1;
+    private double keyGapEstimate = -1;
+    private double lastKeyMillis = -1;
+    private double sentAtMillis;
     private Timer sendQueryToServer = null;
     private GeocodeListener geocodeListener = null;
     private List<GeocodedLocationSuggestion> suggestions = Collections.emptyList();
+    private Map<Integer, String> knownDisplayStrings = new HashMap<Integer, String>();
     private boolean isInitiatedFromServer = false;
     private TextChangeListener textChangeHandler;
     private int minimumQueryCharacters = 3;
+    private int cacheSize = 16;
+    private final SuggestionCache cache = new SuggestionCache();
+    private String lastSentQuery;
+    private String answeredQuery;
+    private int gatedQueries;
     boolean skipNextEnter;
 
     public VLocationTextField() {
@@ -91,13 +112,49 @@ public class VLocationTextField extends Composite implements KeyUpHandler, Focus
                 response.setSuggestions(wrapSuggestions(suggestions));
                 callback.onSuggestionsReady(request, response);
             } else {
-                // send event to the server side
+                // answer queries typed recently from the cache, send anything else to the server side
                 String query = request.getQuery().trim();
-                scheduleQuery(query);
+                List<GeocodedLocationSuggestion> cached = cache.get(normalize(query));
+                if (cached != null) {
+                    if (sendQueryToServer != null) {
+                        sendQueryToServer.cancel();
+                        sendQueryToServer = null;
+                    }
+                    suggestions = cached;
+                    Response response = new Response();
+                    response.setSuggestions(wrapSuggestions(cached));
+                    callback.onSuggestionsReady(request, response);
+                } else {
+                    scheduleQuery(query);
+                }
             }
         }
     }
 
+    /**
+     * LRU of the suggestions received for recently sent queries, keyed by normalized query
+     */
+    private class SuggestionCache extends LinkedHashMap<String, List<GeocodedLocationSuggestion>> {
+
+        private static final long serialVersionUID = -4871039256207318154L;
+
+        private SuggestionCache() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, List<GeocodedLocationSuggestion>> eldest) {
+            return this.size() > cacheSize;
+        }
+    }
+
+    /**
+     * Trims, collapses whitespace and lower-cases a query the same way the server normalizes its cache keys
+     */
+    static String normalize(String query) {
+        return query == null ? "" : query.trim().replaceAll("\\s+", " ").toLowerCase();
+    }
+
     private void scheduleQuery(final String query) {
 
         if (this.sendQueryToServer != null) {
@@ -109,12 +166,95 @@ public class VLocationTextField extends Composite implements KeyUpHandler, Focus
             public void run() {
                 sendQueryToServer = null;
                 if (geocodeListener != null && query != null && query.equals(suggestBox.getText())) {
+                    if (isGated(query)) {
+                        geocodeListener.handleQueriesGated(++gatedQueries);
+                        return;
+                    }
+                    lastSentQuery = query;
+                    sentAtMillis = Duration.currentTimeMillis();
                     geocodeListener.handleGeocode(query);
                 }
             }
         };
 
-        this.sendQueryToServer.schedule(this.delayMillis);
+        this.sendQueryToServer.schedule(this.getEffectiveDelayMillis());
+    }
+
+    /**
+     * Decides whether a query would be answered with the suggestions the field already has, so it need not be sent. A query
+     * is gated if it is no longer than the minimum length the server requires, if it is the query in flight or the one the
+     * shown suggestions answer, if it differs from either only in case, whitespace or punctuation, or if it matches one of
+     * the shown suggestions. In all but the first case the shown suggestions are kept on screen.
+     * @param query query about to be sent
+     * @return true if the query should not be sent
+     */
+    private boolean isGated(String query) {
+        if (query.length() <= this.minimumQueryCharacters)
+            return true;
+        if (this.lastSentQuery != null && Duration.currentTimeMillis() - this.sentAtMillis > this.getPendingTimeoutMillis())
+            this.lastSentQuery = null;      // no answer arrived, e.g. the query failed or its results were dropped
+        boolean gated = query.equals(this.lastSentQuery) || query.equals(this.answeredQuery);
+        if (!gated) {
+            final String key = gateKey(query);
+            gated = key.equals(gateKey(this.lastSentQuery)) || key.equals(gateKey(this.answeredQuery));
+            for (int i = 0; !gated && i < this.suggestions.size(); i++)
+                gated = key.equals(gateKey(this.suggestions.get(i).getDisplayString()));
+        }
+        if (gated && !this.suggestions.isEmpty())
+            this.setSuggestions(this.suggestions);
+        return gated;
+    }
+
+    /**
+     * Time after which a query sent without an answer no longer gates the same query: the effective delay plus the
+     * measured round trip time, or the max delay while there is no measurement yet
+     */
+    private double getPendingTimeoutMillis() {
+        return this.getEffectiveDelayMillis() + (this.latencyEstimate >= 0 ? this.latencyEstimate : this.maxDelayMillis);
+    }
+
+    /**
+     * Reduces a query to its lower-cased letters and digits, separated by single spaces
+     */
+    static String gateKey(String query) {
+        if (query == null)
+            return null;
+        final StringBuilder builder = new StringBuilder(query.length());
+        boolean pendingSpace = false;
+        for (int i = 0; i < query.length(); i++) {
+            final char c = query.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                if (pendingSpace)
+                    builder.append(' ');
+                builder.append(Character.toLowerCase(c));
+                pendingSpace = false;
+            } else {
+                pendingSpace = builder.length() > 0;
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Delay before a query is sent to the server. In adaptive mode the delay follows the measured round trip time, so a
+     * fast backend is queried almost as soon as the user pauses, while a slow one is not sent queries faster than it can
+     * answer them. When the backend is slower than the user types, the delay is stretched past the typical pause between
+     * keys so a query is only sent once the user stops typing. The server's back-off hint is added in either mode.
+     * @return delay in milliseconds
+     */
+    int getEffectiveDelayMillis() {
+        double delay = this.delayMillis;
+        if (this.adaptiveDelay && this.latencyEstimate >= 0) {
+            delay = this.latencyEstimate;
+            if (this.keyGapEstimate >= 0 && this.latencyEstimate >= this.keyGapEstimate)
+                delay = Math.max(delay, 1.5 * this.keyGapEstimate);
+            delay = Math.min(Math.max(delay, this.minDelayMillis), this.maxDelayMillis);
+        }
+        return (int)delay + this.delayBackoffMillis;
+    }
+
+    private static double smooth(double estimate, double sample) {
+        return estimate < 0 ? sample : estimate + SMOOTHING * (sample - estimate);
     }
 
     private List<SuggestOracle.Suggestion> wrapSuggestions(List<GeocodedLocationSuggestion> in) {
@@ -125,6 +265,55 @@ public class VLocationTextField extends Composite implements KeyUpHandler, Focus
         return out;
     }
 
+    /**
+     * Rebuilds the suggestion list from a delta sent by the server. Suggestions the server does not send titles for are the
+     * ones shown before; after a non-empty update only the suggestions of that update are remembered, which is what the
+     * server assumes when encoding the next delta.
+     * @param query query the suggestions answer
+     * @param ids ids of all suggestions, in display order
+     * @param newIds ids of the suggestions not shown before
+     * @param newDisplayStrings titles of the suggestions in {@code newIds}
+     */
+    public void updateSuggestions(String query, int[] ids, int[] newIds, String[] newDisplayStrings) {
+        for (int i = 0; i < newIds.length; i++)
+            this.knownDisplayStrings.put(newIds[i], newDisplayStrings[i]);
+        final List<GeocodedLocationSuggestion> list = new ArrayList<GeocodedLocationSuggestion>(ids.length);
+        for (int id : ids) {
+            GeocodedLocationSuggestion suggestion = new GeocodedLocationSuggestion();
+            suggestion.setId(id);
+            suggestion.setDisplayString(this.knownDisplayStrings.get(id));
+            list.add(suggestion);
+        }
+        if (!list.isEmpty()) {
+            this.knownDisplayStrings = new HashMap<Integer, String>();
+            for (GeocodedLocationSuggestion suggestion : list)
+                this.knownDisplayStrings.put(suggestion.getId(), suggestion.getDisplayString());
+        }
+        this.receiveSuggestions(list, query);
+    }
+
+    /**
+     * Shows suggestions received from the server. Any answer to the last query sent, even an empty one, settles that
+     * query; non-empty answers are cached. Lists sent while clearing choices carry no query and settle nothing.
+     * @param suggestions suggestions to show
+     * @param query query the server answered, or null
+     */
+    public void receiveSuggestions(List<GeocodedLocationSuggestion> suggestions, String query) {
+        this.answeredQuery = null;
+        if (this.lastSentQuery != null && query != null && normalize(this.lastSentQuery).equals(normalize(query))) {
+            if (!suggestions.isEmpty()) {
+                this.answeredQuery = this.lastSentQuery;
+                if (this.cacheSize > 0) {
+                    this.cache.put(normalize(query),
+                      Collections.unmodifiableList(new ArrayList<GeocodedLocationSuggestion>(suggestions)));
+                }
+            }
+            this.latencyEstimate = smooth(this.latencyEstimate, Duration.currentTimeMillis() - this.sentAtMillis);
+            this.lastSentQuery = null;
+        }
+        this.setSuggestions(suggestions);
+    }
+
     public void setSuggestions(List<GeocodedLocationSuggestion> suggestions) {
         this.isInitiatedFromServer = true;
         try {
@@ -150,16 +339,42 @@ public class VLocationTextField extends Composite implements KeyUpHandler, Focus
 
     public interface GeocodeListener {
         void handleGeocode(String query);
+
+        /**
+         * Called whenever a query was not sent to the server because the shown suggestions already answer it
+         * @param total number of queries not sent since the widget was created
+         */
+        void handleQueriesGated(int total);
     }
 
     public interface TextChangeListener {
         void onTextChange(String text);
     }
 
+    public void setCacheSize(int cacheSize) {
+        this.cacheSize = cacheSize;
+        if (cacheSize <= 0) {
+            this.cache.clear();
+        } else {
+            while (this.cache.size() > cacheSize)
+                this.cache.remove(this.cache.keySet().iterator().next());
+        }
+    }
+
     public void setDelayMillis(int delayMillis) {
         this.delayMillis = delayMillis;
     }
 
+    public void setAdaptiveDelay(boolean adaptiveDelay, int minDelayMillis, int maxDelayMillis) {
+        this.adaptiveDelay = adaptiveDelay;
+        this.minDelayMillis = minDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    public void setDelayBackoffMillis(int delayBackoffMillis) {
+        this.delayBackoffMillis = delayBackoffMillis;
+    }
+
     public void setDisplayedText(String text) {
         suggestBox.getValueBox().setText(text);
     }
@@ -202,7 +417,15 @@ public class VLocationTextField extends Composite implements KeyUpHandler, Focus
 
         final GeocodedLocationSuggestionsDisplay display =
           (GeocodedLocationSuggestionsDisplay)this.suggestBox.getSuggestionDisplay();
-        switch (event.getNativeKeyCode()) {
+        final int keyCode = event.getNativeKeyCode();
+        if (!KeyCodes.isArrowKey(keyCode) && keyCode != KeyCodes.KEY_ENTER && keyCode != KeyCodes.KEY_ESCAPE
+          && keyCode != KeyCodes.KEY_TAB) {
+            final double now = Duration.currentTimeMillis();
+            if (this.lastKeyMillis >= 0 && now - this.lastKeyMillis < MAX_KEY_GAP_MILLIS)
+                this.keyGapEstimate = smooth(this.keyGapEstimate, now - this.lastKeyMillis);
+            this.lastKeyMillis = now;
+        }
+        switch (keyCode) {
         case KeyCodes.KEY_ESCAPE:
         case KeyCodes.KEY_TAB:
             display.hideSuggestions();